@@ -0,0 +1,151 @@
+package xnioredis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import xnioredis.decoder.parser.FrameDecoder;
+import xnioredis.decoder.parser.ReplyParser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static xnioredis.decoder.ArrayBuilders.collection;
+import static xnioredis.decoder.BulkStringBuilders.byteArray;
+import static xnioredis.decoder.BulkStringBuilders.charSequence;
+import static xnioredis.decoder.BulkStringBuilders.string;
+import static xnioredis.decoder.MapBuilders.map;
+import static xnioredis.decoder.Replies.arrayReply;
+import static xnioredis.decoder.Replies.bulkStringReply;
+import static xnioredis.decoder.Replies.longReply;
+import static xnioredis.decoder.Replies.mapReply;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodingBenchmark {
+    @Param({"INTEGER", "BULK", "ARRAY", "MAP"})
+    public String reply;
+
+    // Payload bytes for BULK, number of elements for ARRAY and entries for MAP; INTEGER ignores it
+    @Param({"16", "1024"})
+    public int size;
+
+    // FRAMES is the per-connection frame decoder used for built-in replies, CONTINUATIONS the generic parser path
+    @Param({"FRAMES", "CONTINUATIONS"})
+    public String engine;
+
+    private ReplyParser<?> parser;
+    private ByteBuffer whole;
+    private ByteBuffer[] heads;
+    private ByteBuffer[] tails;
+    private CharsetDecoder charsetDecoder;
+    private FrameDecoder frameDecoder;
+
+    @Setup
+    public void setUp() {
+        StringBuilder resp = new StringBuilder();
+        switch (reply) {
+            case "INTEGER":
+                parser = longReply();
+                resp.append(":1234567890123\r\n");
+                break;
+            case "BULK":
+                parser = bulkStringReply(byteArray());
+                appendBulkString(resp, element(size));
+                break;
+            case "ARRAY":
+                parser = arrayReply(collection(ArrayList::new), charSequence());
+                resp.append('*').append(size).append("\r\n");
+                for (int i = 0; i < size; i++) {
+                    appendBulkString(resp, element(i));
+                }
+                break;
+            case "MAP":
+                parser = mapReply(map(HashMap::new), string(), string());
+                resp.append('*').append(size * 2).append("\r\n");
+                for (int i = 0; i < size; i++) {
+                    appendBulkString(resp, "field:" + i);
+                    appendBulkString(resp, element(i));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(reply);
+        }
+        byte[] bytes = resp.toString().getBytes(US_ASCII);
+        whole = directBuffer(bytes, 0, bytes.length);
+        heads = new ByteBuffer[bytes.length - 1];
+        tails = new ByteBuffer[bytes.length - 1];
+        for (int i = 1; i < bytes.length; i++) {
+            heads[i - 1] = directBuffer(bytes, 0, i);
+            tails[i - 1] = directBuffer(bytes, i, bytes.length - i);
+        }
+        charsetDecoder = UTF_8.newDecoder();
+        frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+    }
+
+    private static String element(int i) {
+        return String.format("value:%08d", i);
+    }
+
+    private static void appendBulkString(StringBuilder resp, String s) {
+        resp.append('$').append(s.length()).append("\r\n").append(s).append("\r\n");
+    }
+
+    private static ByteBuffer directBuffer(byte[] bytes, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(bytes, offset, length).flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public Object contiguous() {
+        whole.rewind();
+        if (engine.equals("FRAMES")) {
+            frameDecoder.decode(whole, parser);
+            return frameDecoder.value();
+        }
+        return parse(parser, whole);
+    }
+
+    // One op decodes the reply once for every split point, as if it arrived in two reads
+    @Benchmark
+    public void splitAtEveryBoundary(Blackhole blackhole) {
+        for (int i = 0; i < heads.length; i++) {
+            ByteBuffer head = heads[i];
+            ByteBuffer tail = tails[i];
+            head.rewind();
+            tail.rewind();
+            if (engine.equals("FRAMES")) {
+                frameDecoder.decode(head, parser);
+                frameDecoder.decode(tail, parser);
+                blackhole.consume(frameDecoder.value());
+                continue;
+            }
+            Object partial = parse(parser, head);
+            blackhole.consume(parse((ReplyParser<?>) partial, tail));
+        }
+    }
+
+    private Object parse(ReplyParser<?> parser, ByteBuffer buffer) {
+        return parser.parseReply(buffer, value -> value, partial -> partial, message -> {
+            throw new IllegalStateException(message.toString());
+        }, charsetDecoder);
+    }
+}
@@ -0,0 +1,99 @@
+package xnioredis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import xnioredis.commands.Command1;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static xnioredis.decoder.Replies.simpleStringReply;
+import static xnioredis.encoder.Encoders.mapArg;
+import static xnioredis.encoder.Encoders.strArg;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+    private static final Command1<Map<String, ? extends CharSequence>, CharSequence> MSET =
+            xnioredis.commands.String.mset(mapArg(strArg(), strArg()), simpleStringReply());
+    private static final int PAIRS = 8;
+
+    @Param({"GET", "SET", "HMSET", "MSET"})
+    public String command;
+
+    @Param({"8", "256", "4096"})
+    public int valueSize;
+
+    @Param({"UTF-8", "ISO-8859-1", "UTF-16LE"})
+    public String charset;
+
+    private Request<?> request;
+    private ByteBufferBundle bundle;
+    private CharsetEncoder charsetEncoder;
+
+    @Setup
+    public void setUp() {
+        String key = "benchmark:key:0001";
+        String value = text(valueSize);
+        Map<String, String> pairs = new LinkedHashMap<>();
+        for (int i = 0; i < PAIRS; i++) {
+            pairs.put(key + ':' + i, value);
+        }
+        switch (command) {
+            case "GET":
+                request = Commands.GET.apply(key);
+                break;
+            case "SET":
+                request = Commands.SET.apply(key, value);
+                break;
+            case "HMSET":
+                request = Commands.HMSET.apply(key, pairs);
+                break;
+            case "MSET":
+                request = MSET.apply(pairs);
+                break;
+            default:
+                throw new IllegalArgumentException(command);
+        }
+        bundle = new ByteBufferBundle(new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, 4096,
+                4096 * 256));
+        charsetEncoder = Charset.forName(charset).newEncoder();
+    }
+
+    private static String text(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    // Encodes the way the connection's write handler does, then returns the buffers to the pool
+    @Benchmark
+    public void encode(Blackhole blackhole) throws IOException {
+        ByteBufferSink byteSink = new ByteBufferSink(bundle);
+        request.writer().write(new ByteBuffersRespSink(byteSink, charsetEncoder));
+        blackhole.consume(byteSink.count());
+        bundle.free();
+    }
+}
@@ -3,6 +3,7 @@ package xnioredis.guava;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import xnioredis.decoder.ArrayBuilderFactory;
+import xnioredis.decoder.ByteView;
 import xnioredis.decoder.MapBuilderFactory;
 
 public class CollectionBuilders {
@@ -19,6 +20,11 @@ public class CollectionBuilders {
             public ImmutableList<E> build() {
                 return builder.build();
             }
+
+            @Override
+            public void discard() {
+                ByteView.releaseAll(builder.build());
+            }
         };
     }
 
@@ -35,6 +41,11 @@ public class CollectionBuilders {
             public ImmutableMap<K, V> build() {
                 return builder.build();
             }
+
+            @Override
+            public void discard() {
+                ByteView.releaseAll(builder.build());
+            }
         };
     }
 }
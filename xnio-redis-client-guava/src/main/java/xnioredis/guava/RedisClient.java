@@ -3,9 +3,9 @@ package xnioredis.guava;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
-import org.xnio.IoFuture;
+import org.xnio.OptionMap;
 import org.xnio.Pool;
-import org.xnio.StreamConnection;
+import org.xnio.XnioWorker;
 import xnioredis.Command;
 import xnioredis.Request;
 import xnioredis.XnioRedisClient;
@@ -13,12 +13,24 @@ import xnioredis.commands.Command1;
 import xnioredis.commands.Command2;
 import xnioredis.commands.Command3;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class RedisClient extends XnioRedisClient<ListenableFuture, SettableFuture> {
-    RedisClient(IoFuture<StreamConnection> streamConnectionFuture, Pool<ByteBuffer> bufferPool, Charset charset) {
-        super(streamConnectionFuture, bufferPool, charset);
+    RedisClient(XnioWorker worker, SocketAddress address, Pool<ByteBuffer> bufferPool, Charset charset,
+            OptionMap options) {
+        super(worker, address, bufferPool, charset, options);
+    }
+
+    RedisClient(XnioWorker worker, Collection<InetSocketAddress> seeds, Pool<ByteBuffer> bufferPool, Charset charset,
+            OptionMap options) {
+        super(worker, seeds, bufferPool, charset, options);
     }
 
     @Override
@@ -38,8 +50,8 @@ public class RedisClient extends XnioRedisClient<ListenableFuture, SettableFutur
 
     @SuppressWarnings("unchecked")
     @Override
-    protected <T> void complete(SettableFuture future, T value) {
-        future.set(value);
+    protected <T> boolean complete(SettableFuture future, T value) {
+        return future.set(value);
     }
 
     @Override
@@ -57,39 +69,85 @@ public class RedisClient extends XnioRedisClient<ListenableFuture, SettableFutur
         return send_(request);
     }
 
+    @SuppressWarnings("unchecked")
+    public <T> ListenableFuture<T> send(Request<T> request, long timeout, TimeUnit unit) {
+        return send_(request, timeout, unit);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> ListenableFuture<T> sendKeyed(Object routingKey, Request<T> request) {
+        return send_(routingKey, request);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> ListenableFuture<T> sendKeyed(Object routingKey, Request<T> request, long timeout, TimeUnit unit) {
+        return send_(routingKey, request, timeout, unit);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> List<ListenableFuture<T>> sendAll(List<? extends Request<? extends T>> requests) {
+        return (List) sendAll_(requests);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> List<ListenableFuture<T>> sendAllKeyed(Object routingKey,
+            List<? extends Request<? extends T>> requests) {
+        return (List) sendAll_(routingKey, requests);
+    }
+
     public final <V, R> ListenableFuture<R> send(Command<R> command, Command.OptionalValue<V> opt, V val) {
         return send(command.append(opt, val));
     }
 
+    @SuppressWarnings("unchecked")
     public final <T, R> ListenableFuture<R> send(Command1<T, R> command, T arg) {
-        return send(command.apply(arg));
+        return sendArg_(arg, command.apply(arg));
     }
 
+    @SuppressWarnings("unchecked")
     public final <T, V, R> ListenableFuture<R> send(Command1<T, R> command, T arg, Command.OptionalValue<V> opt,
             V val) {
-        return send(command.apply(arg).append(opt, val));
+        return sendArg_(arg, command.apply(arg).append(opt, val));
     }
 
+    @SuppressWarnings("unchecked")
     public final <T1, T2, R> ListenableFuture<R> send(Command2<T1, T2, R> command, T1 arg1, T2 arg2) {
-        return send(command.apply(arg1, arg2));
+        return sendArg_(arg1, command.apply(arg1, arg2));
     }
 
+    @SuppressWarnings("unchecked")
     public final <T1, T2, V, R> ListenableFuture<R> send(Command2<T1, T2, R> command, T1 arg1, T2 arg2,
             Command.OptionalValue<V> opt, V val) {
-        return send(command.apply(arg1, arg2).append(opt, val));
+        return sendArg_(arg1, command.apply(arg1, arg2).append(opt, val));
     }
 
+    @SuppressWarnings("unchecked")
     public final <T1, T2, T3, R> ListenableFuture<R> send(Command3<T1, T2, T3, R> command, T1 arg1, T2 arg2, T3 arg3) {
-        return send(command.apply(arg1, arg2, arg3));
+        return sendArg_(arg1, command.apply(arg1, arg2, arg3));
+    }
+
+    // A command whose only argument is the key, such as GET
+    @SuppressWarnings("unchecked")
+    public final <K extends CharSequence, R> ListenableFuture<R> sendCached(Command1<K, R> command, K key) {
+        return sendCached_(key, command, command.apply(key));
+    }
+
+    // A command of a key and one more argument, such as HGET; arg needs equals and hashCode
+    @SuppressWarnings("unchecked")
+    public final <K extends CharSequence, T, R> ListenableFuture<R> sendCached(Command2<K, T, R> command, K key,
+            T arg) {
+        return sendCached_(key, Arrays.asList(command, arg), command.apply(key, arg));
     }
 
     @SafeVarargs
+    @SuppressWarnings("unchecked")
     public final <E, R> ListenableFuture<R> send(Command1<E[], R> command, E... arg1) {
-        return send(command.apply(arg1));
+        return sendArg_(arg1, command.apply(arg1));
     }
 
     @SafeVarargs
+    @SuppressWarnings("unchecked")
     public final <T, E, R> ListenableFuture<R> send(Command2<T, E[], R> command, T arg1, E... arg2) {
-        return send(command.apply(arg1, arg2));
+        return sendArg_(arg1, command.apply(arg1, arg2));
     }
 }
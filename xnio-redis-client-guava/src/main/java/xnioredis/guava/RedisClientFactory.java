@@ -2,11 +2,9 @@ package xnioredis.guava;
 
 import org.xnio.BufferAllocator;
 import org.xnio.ByteBufferSlicePool;
-import org.xnio.IoFuture;
 import org.xnio.OptionMap;
 import org.xnio.Options;
 import org.xnio.Pool;
-import org.xnio.StreamConnection;
 import org.xnio.Xnio;
 import org.xnio.XnioWorker;
 
@@ -14,6 +12,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Collection;
 
 public class RedisClientFactory implements AutoCloseable {
     private final Pool<ByteBuffer> byteBufferPool =
@@ -28,8 +27,20 @@ public class RedisClientFactory implements AutoCloseable {
     }
 
     public RedisClient connect(InetSocketAddress address) {
-        IoFuture<StreamConnection> streamConnectionFuture = worker.openStreamConnection(address, null, OptionMap.EMPTY);
-        return new RedisClient(streamConnectionFuture, byteBufferPool, charset);
+        return connect(address, OptionMap.EMPTY);
+    }
+
+    public RedisClient connect(InetSocketAddress address, OptionMap options) {
+        return new RedisClient(worker, address, byteBufferPool, charset, options);
+    }
+
+    // Any nodes of a Redis Cluster; the others are found from their slot map
+    public RedisClient connectCluster(Collection<InetSocketAddress> seeds) {
+        return connectCluster(seeds, OptionMap.EMPTY);
+    }
+
+    public RedisClient connectCluster(Collection<InetSocketAddress> seeds, OptionMap options) {
+        return new RedisClient(worker, seeds, byteBufferPool, charset, options);
     }
 
     @Override
@@ -1,38 +1,86 @@
 package xnioredis.guava;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.xnio.OptionMap;
+import xnioredis.Command;
 import xnioredis.CommandList;
 import xnioredis.CommandPair;
+import xnioredis.Key;
+import xnioredis.NearCache;
 import xnioredis.RedisException;
+import xnioredis.RedisOptions;
+import xnioredis.Script;
 import xnioredis.Request;
+import xnioredis.Subscriber;
+import xnioredis.Transaction;
+import xnioredis.WatchConflictException;
+import xnioredis.WriteStatistics;
+import xnioredis.commands.Command2;
+import xnioredis.decoder.ArrayBuilders;
+import xnioredis.decoder.ByteView;
+import xnioredis.decoder.LongHashSet;
+import xnioredis.decoder.MapBuilders;
+import xnioredis.decoder.RespValue;
+import xnioredis.decoder.parser.ReplyParser;
+import xnioredis.encoder.RespArrayElementsWriter;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.emptyArray;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItemInArray;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static xnioredis.Commands.BLPOP;
+import static xnioredis.Commands.COMMAND_INFO;
 import static xnioredis.Commands.DEL;
 import static xnioredis.Commands.ECHO;
 import static xnioredis.Commands.EX;
 import static xnioredis.Commands.FLUSHDB;
 import static xnioredis.Commands.GET;
+import static xnioredis.Commands.GET_VIEW;
 import static xnioredis.Commands.HDEL;
 import static xnioredis.Commands.HGET;
 import static xnioredis.Commands.HGETALL;
@@ -49,13 +97,38 @@ import static xnioredis.Commands.HSET;
 import static xnioredis.Commands.HSET_BYTES;
 import static xnioredis.Commands.HSET_LONG;
 import static xnioredis.Commands.PING;
+import static xnioredis.Commands.PUBLISH;
+import static xnioredis.Commands.PUBLISH_BYTES;
 import static xnioredis.Commands.SADD;
 import static xnioredis.Commands.SADD_INT_ARR;
 import static xnioredis.Commands.SADD_LONG_ARR;
 import static xnioredis.Commands.SETNX;
+import static xnioredis.Commands.SET_BUFFER;
 import static xnioredis.Commands.SET_BYTES;
 import static xnioredis.Commands.SMEMBERS;
 import static xnioredis.Commands.SMEMBERS_INTEGER_LIST;
+import static xnioredis.Commands.SMEMBERS_LONG_ARR;
+import static xnioredis.Commands.SMEMBERS_LONG_SET;
+import static xnioredis.Commands.TIME;
+import static xnioredis.commands.Hash.hgetall;
+import static xnioredis.commands.Set.smembers;
+import static xnioredis.commands.String.get;
+import static xnioredis.decoder.BulkStringBuilders._double;
+import static xnioredis.decoder.BulkStringBuilders._long;
+import static xnioredis.decoder.BulkStringBuilders.string;
+import static xnioredis.decoder.MapBuilders.map;
+import static xnioredis.decoder.Replies.arrayReply;
+import static xnioredis.decoder.Replies.bulkStringReply;
+import static xnioredis.decoder.Replies.integerReply;
+import static xnioredis.decoder.Replies.longReply;
+import static xnioredis.decoder.Replies.mapReply;
+import static xnioredis.decoder.Replies.simpleStringReply;
+import static xnioredis.decoder.Replies.transferReply;
+import static xnioredis.decoder.Replies.valueReply;
+import static xnioredis.encoder.Encoders.arrayArg;
+import static xnioredis.encoder.Encoders.byteBufferArg;
+import static xnioredis.encoder.Encoders.collArg;
+import static xnioredis.encoder.Encoders.strArg;
 import static xnioredis.guava.Commands.HGETALL_G;
 import static xnioredis.guava.Commands.HKEYS_G;
 import static xnioredis.guava.Commands.HMGET_G;
@@ -307,4 +380,485 @@ public class RedisClientTest {
         assertThat(redisClient.send(SADD_INT_ARR, key, new int[]{val1, val2}).get(), equalTo(2));
         assertThat(redisClient.send(SMEMBERS_INTEGER_LIST, key).get(), containsInAnyOrder(val1, val2));
     }
+
+    @Test
+    public void smembersIntoPrimitives() throws Exception {
+        String key = "S_KEY_1";
+        long[] members = {Long.MIN_VALUE, -1, 0, 42, Long.MAX_VALUE};
+        assertThat(redisClient.send(SADD_LONG_ARR, key, members).get(), equalTo(members.length));
+        long[] array = redisClient.send(SMEMBERS_LONG_ARR, key).get();
+        Arrays.sort(array);
+        assertArrayEquals(members, array);
+        LongHashSet set = redisClient.send(SMEMBERS_LONG_SET, key).get();
+        assertThat(set.size(), equalTo(members.length));
+        for (long member : members) {
+            assertThat(set.contains(member), equalTo(true));
+        }
+        assertThat(set.contains(1), equalTo(false));
+    }
+
+    @Test
+    public void pooledConnectionsKeepKeyedOrder() throws Exception {
+        try (RedisClientFactory pooledFactory = new RedisClientFactory(UTF_8, 4);
+             RedisClient pooledClient = pooledFactory.connect(new InetSocketAddress("localhost", 6379),
+                     OptionMap.create(RedisOptions.CONNECTIONS, 4))) {
+            String key = "H_KEY_1";
+            String field = "FIELD_1";
+            List<ListenableFuture<Long>> increments = new ArrayList<>();
+            List<ListenableFuture<CharSequence>> pings = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                increments.add(pooledClient.sendKeyed(key, HINCRBY.apply(key, field, 1L)));
+                pings.add(pooledClient.send(PING));
+            }
+            for (int i = 0; i < 100; i++) {
+                assertThat(increments.get(i).get(), equalTo(i + 1L));
+                assertThat(pings.get(i).get(), hasSameContentAs("PONG"));
+            }
+        }
+    }
+
+    @Test
+    public void coalescesPipelinedCommands() throws Exception {
+        try (RedisClient coalescingClient = factory.connect(new InetSocketAddress("localhost", 6379),
+                OptionMap.builder()
+                        .set(RedisOptions.FLUSH_MAX_COMMANDS, 10)
+                        .set(RedisOptions.FLUSH_LINGER_MICROS, 1000)
+                        .getMap())) {
+            List<ListenableFuture<CharSequence>> pings = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                pings.add(coalescingClient.send(PING));
+            }
+            for (ListenableFuture<CharSequence> ping : pings) {
+                assertThat(ping.get(), hasSameContentAs("PONG"));
+            }
+            WriteStatistics statistics = coalescingClient.writeStatistics();
+            assertThat(statistics.getCommandsWritten(), equalTo(100L));
+            assertThat(statistics.getBytesWritten(), equalTo(100L * "*1\r\n$4\r\nPING\r\n".length()));
+            assertThat(statistics.getFlushes(), greaterThanOrEqualTo(10L));
+        }
+    }
+
+    @Test
+    public void timedOutRequestKeepsPipelineInSync() throws Exception {
+        ListenableFuture<List<CharSequence>> blocked =
+                redisClient.send(BLPOP.apply(new CharSequence[]{"EMPTY_LIST"}, 1), 100, TimeUnit.MILLISECONDS);
+        ListenableFuture<CharSequence> ping = redisClient.send(PING);
+        try {
+            blocked.get();
+            fail("Should time out");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        }
+        assertThat(ping.get(), hasSameContentAs("PONG"));
+        assertThat(redisClient.send(ECHO, "after").get(), hasSameContentAs("after"));
+    }
+
+    @Test
+    public void requestQueuedDuringOutageTimesOut() throws Exception {
+        // Nothing listens there, so the request waits in the queue for a connection that never comes
+        try (RedisClient unreachable = factory.connect(new InetSocketAddress("localhost", 1),
+                OptionMap.create(RedisOptions.RECONNECT_MIN_DELAY, 1000))) {
+            ListenableFuture<CharSequence> ping = unreachable.send(PING, 100, TimeUnit.MILLISECONDS);
+            try {
+                ping.get(5, TimeUnit.SECONDS);
+                fail("Should time out");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(TimeoutException.class));
+            }
+        }
+    }
+
+    @Test
+    public void reconnectsAfterConnectionLoss() throws Exception {
+        Command<Integer> killOtherClients = new Command<Integer>() {
+            @Override
+            public RespArrayElementsWriter[] writers() {
+                return Stream.of("CLIENT", "KILL", "TYPE", "normal").map(strArg()::encode)
+                        .toArray(RespArrayElementsWriter[]::new);
+            }
+
+            @Override
+            public ReplyParser<? extends Integer> parser() {
+                return integerReply();
+            }
+        };
+        assertThat(redisClient.send(PING).get(), hasSameContentAs("PONG"));
+        try (RedisClient killer = factory.connect(new InetSocketAddress("localhost", 6379))) {
+            assertThat(killer.send(killOtherClients).get(), equalTo(1));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertThat(redisClient.send(Request.idempotent(ECHO.apply("again"))).get(), hasSameContentAs("again"));
+        }
+    }
+
+    @Test
+    public void undecodableReplyClosesTheConnection() throws Exception {
+        assertThat(redisClient.send(HSET, "H_KEY_1", "FIELD_1", "not a number").get(), equalTo(1));
+        try {
+            redisClient.send(HGET_LONG, "H_KEY_1", "FIELD_1").get();
+            fail("Should not decode");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(NumberFormatException.class));
+        }
+        // Read from a new connection rather than from the middle of the stream
+        assertThat(redisClient.send(ECHO, "after").get(), hasSameContentAs("after"));
+    }
+
+    @Test
+    public void canGetPooledView() throws Exception {
+        byte[] value = new byte[64 * 1024];
+        new Random(1).nextBytes(value);
+        redisClient.send(SET_BYTES, "KEY_1", value).get();
+        try (ByteView view = redisClient.send(GET_VIEW, "KEY_1").get()) {
+            assertThat(view.length(), equalTo(value.length));
+            assertThat(view.isComposite(), equalTo(true));
+            assertThat(view.get(value.length - 1), equalTo(value[value.length - 1]));
+            assertArrayEquals(value, view.toByteArray());
+        }
+        try (ByteView view = redisClient.send(GET_VIEW, "KEY_2").get()) {
+            assertThat(view, nullValue());
+        }
+    }
+
+    @Test
+    public void canTransferBulkReplyToChannel() throws Exception {
+        byte[] value = new byte[1024 * 1024];
+        new Random(2).nextBytes(value);
+        redisClient.send(SET_BYTES, "KEY_1", value).get();
+        Path file = Files.createTempFile("xnio-redis", ".bin");
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                assertThat(redisClient.send(get(strArg(), transferReply(channel)), "KEY_1").get(),
+                        equalTo((long) value.length));
+            }
+            assertArrayEquals(value, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void canStreamArrayAndMapReplies() throws Exception {
+        String setKey = "S_KEY_1";
+        List<Long> members = new ArrayList<>();
+        for (long i = 0; i < 10000; i++) {
+            members.add(i);
+        }
+        redisClient.send(SADD, setKey, members).get();
+        long[] sum = {0};
+        assertThat(redisClient.send(smembers(strArg(), arrayReply(ArrayBuilders.forEach(member -> sum[0] += member),
+                _long())), setKey).get(), equalTo(members.size()));
+        assertThat(sum[0], equalTo(10000L * 9999 / 2));
+
+        String hashKey = "H_KEY_1";
+        redisClient.send(HMSET, hashKey, ImmutableMap.of("F1", "V1", "F2", "V2")).get();
+        Map<String, String> entries = new HashMap<>();
+        assertThat(redisClient.send(hgetall(strArg(), mapReply(MapBuilders.<String, String>forEach(entries::put),
+                string(), string())), hashKey).get(), equalTo(2));
+        assertThat(entries, equalTo(ImmutableMap.of("F1", "V1", "F2", "V2")));
+    }
+
+    @Test
+    public void throwingConsumerFailsOnlyItsOwnRequest() throws Exception {
+        String setKey = "S_KEY_1";
+        List<Long> members = new ArrayList<>();
+        for (long i = 0; i < 10000; i++) {
+            members.add(i);
+        }
+        redisClient.send(SADD, setKey, members).get();
+        IllegalStateException thrown = new IllegalStateException("Consumer failed");
+        int[] consumed = {0};
+        ListenableFuture<Integer> streamed = redisClient.send(smembers(strArg(), arrayReply(
+                ArrayBuilders.<Long>forEach(member -> {
+                    if (++consumed[0] == 5) {
+                        throw thrown;
+                    }
+                }), _long())), setKey);
+        // Pipelined behind it on the same connection, which would be closed if the stream lost its place
+        ListenableFuture<CharSequence> echo = redisClient.send(ECHO, "after");
+        try {
+            streamed.get();
+            fail("Should fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), sameInstance(thrown));
+        }
+        assertThat(consumed[0], equalTo(5));
+        assertThat(echo.get(), hasSameContentAs("after"));
+
+        String hashKey = "H_KEY_1";
+        redisClient.send(HMSET, hashKey, ImmutableMap.of("F1", "V1", "F2", "V2")).get();
+        ListenableFuture<Integer> entries = redisClient.send(hgetall(strArg(), mapReply(
+                MapBuilders.<String, String>forEach((field, value) -> {
+                    throw thrown;
+                }), string(), string())), hashKey);
+        echo = redisClient.send(ECHO, "after map");
+        try {
+            entries.get();
+            fail("Should fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), sameInstance(thrown));
+        }
+        assertThat(echo.get(), hasSameContentAs("after map"));
+    }
+
+    @Test
+    public void canReadNestedRepliesAsValues() throws Exception {
+        RespValue info = redisClient.send(COMMAND_INFO, new CharSequence[]{"get", "no-such-command"}).get();
+        assertThat(info.size(), equalTo(2));
+        RespValue get = info.get(0);
+        assertThat(get.get(0).asString(), equalTo("get"));
+        assertThat(get.get(1).asLong(), equalTo(2L));
+        assertThat(get.get(2).get(0).type(), equalTo(RespValue.Type.SIMPLE_STRING));
+        assertThat(get.get(2).asList().stream().map(RespValue::asString).toArray(), hasItemInArray("readonly"));
+        assertThat(info.get(1).isNull(), equalTo(true));
+
+        RespValue time = redisClient.send(TIME).get();
+        assertThat(time.get(0).asLong(), greaterThan(0L));
+    }
+
+    @Test
+    public void speaksResp3AfterHello() throws Exception {
+        BlockingQueue<RespValue> pushes = new LinkedBlockingQueue<>();
+        try (RedisClient resp3 = factory.connect(new InetSocketAddress("localhost", 6379),
+                OptionMap.create(RedisOptions.PROTOCOL, 3))) {
+            resp3.setPushListener(pushes::add);
+            resp3.send(HMSET, "H_KEY_1", ImmutableMap.of("F1", "V1", "F2", "V2")).get();
+            assertThat(resp3.send(hgetall(strArg(), mapReply(map(HashMap::new), string(), string())), "H_KEY_1").get(),
+                    equalTo(ImmutableMap.of("F1", "V1", "F2", "V2")));
+            assertThat(resp3.send(command(valueReply(), "HGETALL", "H_KEY_1")).get().type(),
+                    equalTo(RespValue.Type.MAP));
+            assertThat(resp3.send(command(integerReply(), "ZADD", "Z_KEY_1", "2.5", "M1")).get(), equalTo(1));
+            assertThat(resp3.send(command(bulkStringReply(_double()), "ZSCORE", "Z_KEY_1", "M1")).get(),
+                    equalTo(2.5));
+            assertThat(resp3.send(command(bulkStringReply(string()), "ZSCORE", "Z_KEY_1", "M2")).get(),
+                    nullValue());
+
+            // Invalidation messages of client side caching are pushed
+            assertThat(resp3.send(command(simpleStringReply(), "CLIENT", "TRACKING", "ON")).get(),
+                    hasSameContentAs("OK"));
+            assertThat(resp3.send(GET, "KEY_1").get(), nullValue());
+            redisClient.send(SET_BYTES, "KEY_1", new byte[]{1}).get();
+            RespValue push = pushes.poll(5, TimeUnit.SECONDS);
+            assertThat(push.type(), equalTo(RespValue.Type.PUSH));
+            assertThat(push.get(0).asString(), equalTo("invalidate"));
+            assertThat(push.get(1).get(0).asString(), equalTo("KEY_1"));
+            assertThat(resp3.send(PING).get(), hasSameContentAs("PONG"));
+        }
+    }
+
+    @Test
+    public void nearCacheIsInvalidatedByWrites() throws Exception {
+        try (RedisClient cached = factory.connect(new InetSocketAddress("localhost", 6379),
+                OptionMap.create(RedisOptions.NEAR_CACHE_MAX_BYTES, 1L << 20))) {
+            NearCache nearCache = cached.nearCache();
+            redisClient.send(SET_BYTES, "KEY_1", new byte[]{1}).get();
+            assertArrayEquals(new byte[]{1}, cached.sendCached(GET, "KEY_1").get());
+            assertArrayEquals(new byte[]{1}, cached.sendCached(GET, "KEY_1").get());
+            assertThat(cached.sendCached(HGET, "H_KEY_1", "F1").get(), nullValue());
+            assertThat(cached.sendCached(HGET, "H_KEY_1", "F1").get(), nullValue());
+            assertThat(nearCache.getHits(), equalTo(2L));
+            assertThat(nearCache.getMisses(), equalTo(2L));
+
+            redisClient.send(SET_BYTES, "KEY_1", new byte[]{2}).get();
+            redisClient.send(HSET, "H_KEY_1", "F1", "V1").get();
+            for (int i = 0; i < 100 && nearCache.getInvalidations() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertThat(nearCache.getInvalidations(), equalTo(2L));
+            assertArrayEquals(new byte[]{2}, cached.sendCached(GET, "KEY_1").get());
+            assertThat(cached.sendCached(HGET, "H_KEY_1", "F1").get(), hasSameContentAs("V1"));
+
+            redisClient.send(FLUSHDB).get();
+            for (int i = 0; i < 100 && nearCache.getWeight() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertThat(cached.sendCached(GET, "KEY_1").get(), nullValue());
+        }
+    }
+
+    @Test
+    public void subscriberReceivesPublishedMessages() throws Exception {
+        BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        BlockingQueue<List<String>> batches = new LinkedBlockingQueue<>();
+        try (Subscriber subscriber = redisClient.subscriber()) {
+            // Empty messages are sent while waiting for the subscriptions
+            Subscriber.MessageListener listener = (channel, payload) -> {
+                if (payload.length() > 0) {
+                    messages.add(channel + ':' + payload.toString(UTF_8));
+                }
+            };
+            subscriber.subscribe("CHANNEL_1", listener);
+            subscriber.psubscribe("PATTERN_*", listener);
+            subscriber.subscribe("BATCHED", batch -> batches.add(batch.stream()
+                    .filter(message -> message.payload().length() > 0)
+                    .map(message -> message.payload().toString(UTF_8))
+                    .collect(Collectors.toList())));
+            awaitSubscribers("CHANNEL_1", 1);
+            awaitSubscribers("PATTERN_1", 1);
+            awaitSubscribers("BATCHED", 1);
+
+            assertThat(redisClient.send(PUBLISH, "CHANNEL_1", "M1").get(), equalTo(1));
+            assertThat(redisClient.send(PUBLISH_BYTES, "PATTERN_1", new byte[]{'M', '2'}).get(), equalTo(1));
+            assertThat(messages.poll(5, TimeUnit.SECONDS), equalTo("CHANNEL_1:M1"));
+            assertThat(messages.poll(5, TimeUnit.SECONDS), equalTo("PATTERN_1:M2"));
+            List<ListenableFuture<Integer>> published = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                published.add(redisClient.send(PUBLISH, "BATCHED", Integer.toString(i)));
+            }
+            Futures.allAsList(published).get();
+            List<String> received = new ArrayList<>();
+            while (received.size() < 1000) {
+                received.addAll(batches.poll(5, TimeUnit.SECONDS));
+            }
+            assertThat(received, equalTo(IntStream.range(0, 1000).mapToObj(Integer::toString)
+                    .collect(Collectors.toList())));
+
+            subscriber.unsubscribe("CHANNEL_1");
+            subscriber.punsubscribe("PATTERN_*");
+            awaitSubscribers("CHANNEL_1", 0);
+            awaitSubscribers("PATTERN_1", 0);
+            assertThat(messages, empty());
+        }
+    }
+
+    @Test
+    public void batchGetsFuturePerRequest() throws Exception {
+        List<Request<Long>> increments = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            increments.add(HINCRBY.apply("H_KEY_1", "FIELD_" + i % 10, 1L));
+        }
+        List<ListenableFuture<Long>> futures = redisClient.sendAll(increments);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(futures.get(i).get(), equalTo(i / 10 + 1L));
+        }
+        List<ListenableFuture<Object>> mixed = redisClient.sendAllKeyed("H_KEY_1",
+                Arrays.<Request<?>>asList(PING, HGET.apply("H_KEY_1", "FIELD_0"), HLEN.apply("H_KEY_1")));
+        assertThat((CharSequence) mixed.get(0).get(), hasSameContentAs("PONG"));
+        assertThat((CharSequence) mixed.get(1).get(), hasSameContentAs("100"));
+        assertThat(mixed.get(2).get(), equalTo(10));
+        assertThat(redisClient.sendAll(new ArrayList<Request<?>>()), empty());
+    }
+
+    @Test
+    public void transactionRepliesAreTyped() throws Exception {
+        List<Object> replies = redisClient.send(new Transaction<>(Arrays.<Request<?>>asList(
+                HINCRBY.apply("H_KEY_1", "FIELD_1", 2L),
+                command(bulkStringReply(string()), "HGET", "H_KEY_1", "FIELD_1"),
+                PING))).get();
+        assertThat(replies.get(0), equalTo(2L));
+        assertThat(replies.get(1), equalTo("2"));
+        assertThat((CharSequence) replies.get(2), hasSameContentAs("PONG"));
+    }
+
+    @Test
+    public void transactionIsAbortedWhenCommandIsNotQueued() throws Exception {
+        ListenableFuture<List<Object>> future = redisClient.send(new Transaction<>(Arrays.<Request<?>>asList(
+                HINCRBY.apply("H_KEY_1", "FIELD_1", 2L),
+                command(simpleStringReply(), "NO_SUCH_COMMAND"))));
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(RedisException.class));
+            assertThat(e.getCause().getMessage(), allOf(startsWith("EXECABORT"), containsString("command 1:")));
+        }
+        assertThat(redisClient.send(HGET, "H_KEY_1", "FIELD_1").get(), nullValue());
+    }
+
+    @Test
+    public void transactionFailsWhenWatchedKeyChanges() throws Exception {
+        try (RedisClient watching = factory.connect(new InetSocketAddress("localhost", 6379))) {
+            assertThat(watching.send(command(simpleStringReply(), "WATCH", "H_KEY_1")).get(), hasSameContentAs("OK"));
+            redisClient.send(HSET, "H_KEY_1", "FIELD_1", "V1").get();
+            ListenableFuture<List<Long>> future = watching.send(new Transaction<>(
+                    Arrays.asList(HINCRBY.apply("H_KEY_1", "FIELD_2", 1L))));
+            try {
+                future.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(WatchConflictException.class));
+            }
+            assertThat(redisClient.send(HGET, "H_KEY_1", "FIELD_2").get(), nullValue());
+            assertThat(watching.send(PING).get(), hasSameContentAs("PONG"));
+        }
+    }
+
+    @Test
+    public void scriptIsLoadedWhenServerMissesIt() throws Exception {
+        Script script = new Script("return redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])");
+        Script.Call<Collection<? extends CharSequence>, CharSequence[], Long> increment =
+                script.define(collArg(strArg()), arrayArg(strArg()), longReply());
+        assertThat(redisClient.send(command(simpleStringReply(), "SCRIPT", "FLUSH")).get(), hasSameContentAs("OK"));
+        ListenableFuture<Long> first = redisClient.send(
+                increment.apply(Collections.singletonList("H_KEY_1"), new CharSequence[]{"FIELD_1", "2"}));
+        ListenableFuture<CharSequence> ping = redisClient.send(PING);
+        assertThat(first.get(), equalTo(2L));
+        assertThat(ping.get(), hasSameContentAs("PONG"));
+        assertThat(redisClient.send(
+                increment.apply(Collections.singletonList("H_KEY_1"), new CharSequence[]{"FIELD_1", "3"})).get(),
+                equalTo(5L));
+        assertThat(redisClient.send(command(bulkStringReply(string()), "SCRIPT", "LOAD",
+                "return redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])")).get(), equalTo(script.sha1()));
+    }
+
+    @Test
+    public void keysAreSentPreEncoded() throws Exception {
+        try (RedisClient keyed = factory.connect(new InetSocketAddress("localhost", 6379),
+                OptionMap.create(RedisOptions.KEY_CACHE_SIZE, 16))) {
+            Key key = keyed.key("H_KEY_1");
+            assertThat(keyed.key("H_KEY_1"), sameInstance(key));
+            assertThat(keyed.send(HSET_LONG, key, "FIELD_1", 1L).get(), equalTo(1));
+            assertThat(keyed.send(HINCRBY, keyed.key("H_KEY_1"), "FIELD_1", 2L).get(), equalTo(3L));
+            assertThat(redisClient.send(HGET_LONG, "H_KEY_1", "FIELD_1").get(), equalTo(3L));
+            assertThat(redisClient.send(HGET_LONG, new Key("H_KEY_1", UTF_8), "FIELD_1").get(), equalTo(3L));
+            assertThat(keyed.keyCache().size(), equalTo(1));
+        }
+    }
+
+    @Test
+    public void largeBuffersAreWrittenInPlace() throws Exception {
+        byte[] bytes = new byte[1 << 20];
+        new Random(1).nextBytes(bytes);
+        ByteBuffer value = ByteBuffer.allocateDirect(bytes.length);
+        value.put(bytes).flip();
+        assertThat(redisClient.send(SET_BUFFER, "KEY_1", value.asReadOnlyBuffer()).get(), hasSameContentAs("OK"));
+        assertArrayEquals(bytes, redisClient.send(GET, "KEY_1").get());
+
+        BlockingQueue<ByteBuffer> released = new LinkedBlockingQueue<>();
+        Command2<CharSequence, ByteBuffer, CharSequence> set =
+                xnioredis.commands.String.set(strArg(), byteBufferArg(released::add), simpleStringReply());
+        value.position(1);
+        assertThat(redisClient.send(set, "KEY_2", value).get(), hasSameContentAs("OK"));
+        assertThat(released.poll(1, TimeUnit.SECONDS), sameInstance(value));
+        assertThat(value.position(), equalTo(1));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 1, bytes.length), redisClient.send(GET, "KEY_2").get());
+
+        // A request that is never sent is released too
+        RedisClient closed = factory.connect(new InetSocketAddress("localhost", 6379));
+        closed.close();
+        assertThat(closed.send(set, "KEY_3", value).isCancelled(), equalTo(true));
+        assertThat(released.poll(1, TimeUnit.SECONDS), sameInstance(value));
+        assertThat(released.isEmpty(), equalTo(true));
+    }
+
+    private void awaitSubscribers(String channel, int subscribers) throws Exception {
+        for (int i = 0; i < 100 && redisClient.send(PUBLISH, channel, "").get() != subscribers; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(redisClient.send(PUBLISH, channel, "").get(), equalTo(subscribers));
+    }
+
+    private static <T> Command<T> command(ReplyParser<? extends T> parser, String... args) {
+        return new Command<T>() {
+            @Override
+            public RespArrayElementsWriter[] writers() {
+                return Stream.of(args).map(strArg()::encode).toArray(RespArrayElementsWriter[]::new);
+            }
+
+            @Override
+            public ReplyParser<? extends T> parser() {
+                return parser;
+            }
+        };
+    }
 }
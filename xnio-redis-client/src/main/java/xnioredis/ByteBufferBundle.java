@@ -37,6 +37,15 @@ class ByteBufferBundle {
         return currentWriteBuffer;
     }
 
+    // A buffer of the caller written in place; release is called once it has been written or dropped
+    void add(ByteBuffer buffer, Runnable release) {
+        if (currentWriteBuffer != null) {
+            currentWriteBuffer.flip();
+            currentWriteBuffer = null;
+        }
+        allocated.add(new Borrowed(buffer, release));
+    }
+
     private ByteBuffer allocateBuffer() {
         Pooled<ByteBuffer> pooledBuffer = pool.allocate();
         allocated.add(pooledBuffer);
@@ -68,7 +77,7 @@ class ByteBufferBundle {
             }
         }
         Pooled<ByteBuffer> lastPooledBuffer = allocated.peekLast();
-        if (lastPooledBuffer != null) {
+        if (lastPooledBuffer != null && !(lastPooledBuffer instanceof Borrowed)) {
             ByteBuffer lastBuffer = lastPooledBuffer.getResource();
             if (lastBuffer.limit() < lastBuffer.capacity()) {
                 currentWriteBuffer = lastBuffer.compact();
@@ -76,6 +85,14 @@ class ByteBufferBundle {
         }
     }
 
+    void free() {
+        Pooled<ByteBuffer> pooledBuffer;
+        while ((pooledBuffer = allocated.poll()) != null) {
+            pooledBuffer.free();
+        }
+        currentWriteBuffer = null;
+    }
+
     boolean isEmpty() {
         return allocated.isEmpty();
     }
@@ -83,4 +100,38 @@ class ByteBufferBundle {
     int allocSize() {
         return allocated.size();
     }
+
+    private static final class Borrowed implements Pooled<ByteBuffer> {
+        private final ByteBuffer buffer;
+        private Runnable release;
+
+        private Borrowed(ByteBuffer buffer, Runnable release) {
+            this.buffer = buffer;
+            this.release = release;
+        }
+
+        @Override
+        public void discard() {
+            free();
+        }
+
+        @Override
+        public void free() {
+            Runnable r = release;
+            release = null;
+            if (r != null) {
+                r.run();
+            }
+        }
+
+        @Override
+        public ByteBuffer getResource() {
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            free();
+        }
+    }
 }
@@ -9,6 +9,7 @@ import java.nio.charset.CoderResult;
 class ByteBufferSink implements ByteSink {
     private final ByteBufferBundle byteBufferBundle;
     private ByteBuffer buffer;
+    private long count = 0;
 
     ByteBufferSink(ByteBufferBundle byteBufferBundle) {
         this.byteBufferBundle = byteBufferBundle;
@@ -21,11 +22,13 @@ class ByteBufferSink implements ByteSink {
             buffer = byteBufferBundle.getNew();
         }
         buffer.put(b);
+        count++;
     }
 
     @Override
     public void write(CharSequence s, CharsetEncoder charsetEncoder) throws CharacterCodingException {
         CharBuffer in = CharBuffer.wrap(s);
+        int start = buffer.position();
         try {
             while (true) {
                 CoderResult coderResult = in.hasRemaining() ? charsetEncoder.encode(in, buffer, true) :
@@ -34,9 +37,12 @@ class ByteBufferSink implements ByteSink {
                     coderResult = charsetEncoder.flush(buffer);
                 }
                 if (coderResult.isUnderflow()) {
+                    count += buffer.position() - start;
                     break;
                 } else if (coderResult.isOverflow()) {
+                    count += buffer.position() - start;
                     buffer = byteBufferBundle.getNew();
+                    start = buffer.position();
                 } else {
                     coderResult.throwException();
                 }
@@ -53,6 +59,7 @@ class ByteBufferSink implements ByteSink {
 
     @Override
     public void write(byte[] src, int offset, int length) {
+        count += length;
         while (true) {
             int freeSpace = buffer.remaining();
             if (freeSpace >= length) {
@@ -66,4 +73,30 @@ class ByteBufferSink implements ByteSink {
             }
         }
     }
+
+    @Override
+    public void write(ByteBuffer src, Runnable release) {
+        int length = src.remaining();
+        count += length;
+        if (length >= buffer.capacity()) {
+            // Written from where it is, as copying it would take whole pooled buffers
+            byteBufferBundle.add(src.duplicate(), release);
+            buffer = byteBufferBundle.get();
+            return;
+        }
+        ByteBuffer bytes = src.duplicate();
+        while (bytes.remaining() > buffer.remaining()) {
+            ByteBuffer part = bytes.duplicate();
+            part.limit(part.position() + buffer.remaining());
+            buffer.put(part);
+            bytes.position(part.limit());
+            buffer = byteBufferBundle.getNew();
+        }
+        buffer.put(bytes);
+        release.run();
+    }
+
+    long count() {
+        return count;
+    }
 }
@@ -37,6 +37,13 @@ class ByteBuffersRespSink implements RespSink {
 
     @Override
     public void bulkString(CharSequence s) throws IOException {
+        if (s instanceof Key) {
+            byte[] resp = ((Key) s).resp(charsetEncoder.charset());
+            if (resp != null) {
+                byteSink.write(resp);
+                return;
+            }
+        }
         byteSink.write((byte) '$');
         if (s.length() == 0) {
             byteSink.write((byte) '0');
@@ -91,6 +98,15 @@ class ByteBuffersRespSink implements RespSink {
         writeCRLF();
     }
 
+    @Override
+    public void bulkString(ByteBuffer src, Runnable release) throws IOException {
+        byteSink.write((byte) '$');
+        writeInt(src.remaining());
+        writeCRLF();
+        byteSink.write(src, release);
+        writeCRLF();
+    }
+
     @Override
     public void bulkString(int num) throws IOException {
         if (num >= 0 && num <= 9) {
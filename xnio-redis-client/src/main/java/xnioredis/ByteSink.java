@@ -1,5 +1,6 @@
 package xnioredis;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.CharsetEncoder;
 
@@ -11,4 +12,7 @@ interface ByteSink {
     void write(byte[] src);
 
     void write(byte[] src, int offset, int length);
+
+    // The remaining bytes of src, whose position is left as it is; release is called once they are no longer read
+    void write(ByteBuffer src, Runnable release);
 }
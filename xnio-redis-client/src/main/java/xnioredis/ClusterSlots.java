@@ -0,0 +1,249 @@
+package xnioredis;
+
+import xnioredis.decoder.Replies;
+import xnioredis.decoder.RespValue;
+import xnioredis.decoder.parser.ReplyParser;
+
+import javax.annotation.Nullable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// The master of every hash slot, with one connection per node. The slot map is replaced as a whole when the
+// topology is loaded and single slots are moved by MOVED redirects, so routing never waits for a refresh
+class ClusterSlots<N> {
+    static final int SLOTS = 16384;
+    static final Request<RespValue> CLUSTER_SLOTS =
+            Request.idempotent(request(Replies.arrayValueReply(), "CLUSTER", "SLOTS"));
+    // Lets the next command reach a slot that is being imported by the node
+    static final Request<RespValue> ASKING = request(Replies.valueReply(), "ASKING");
+    private static final long MIN_REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    private final ConcurrentMap<String, N> nodes = new ConcurrentHashMap<>();
+    private final Function<InetSocketAddress, N> connector;
+    private final Charset charset;
+    private final List<N> seeds = new ArrayList<>();
+    private final AtomicLong lastRefresh = new AtomicLong(System.nanoTime() - MIN_REFRESH_INTERVAL);
+    // Null entries are slots of no known node; their requests go to any node and follow its MOVED
+    private volatile N[] slots = newSlots();
+
+    ClusterSlots(Collection<InetSocketAddress> seeds, Function<InetSocketAddress, N> connector,
+            Charset charset) {
+        if (seeds.isEmpty()) {
+            throw new IllegalArgumentException("At least one cluster node is required");
+        }
+        this.connector = connector;
+        this.charset = charset;
+        for (InetSocketAddress seed : seeds) {
+            this.seeds.add(node(seed.getHostString(), seed.getPort()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <N> N[] newSlots() {
+        return (N[]) new Object[SLOTS];
+    }
+
+    N node(Object routingKey) {
+        N node = slots[slot(routingKey)];
+        return node != null ? node : anyNode();
+    }
+
+    N anyNode() {
+        N[] current = slots;
+        N node = current[ThreadLocalRandom.current().nextInt(SLOTS)];
+        return node != null ? node : seeds.get(ThreadLocalRandom.current().nextInt(seeds.size()));
+    }
+
+    N node(String host, int port) {
+        return nodes.computeIfAbsent(host + ':' + port, address -> connector.apply(new InetSocketAddress(host, port)));
+    }
+
+    Collection<N> nodes() {
+        return nodes.values();
+    }
+
+    void moved(int slot, N node) {
+        slots[slot] = node;
+    }
+
+    // Redirects of many requests ask for a single refresh
+    boolean refreshDue() {
+        long last = lastRefresh.get();
+        long now = System.nanoTime();
+        return now - last >= MIN_REFRESH_INTERVAL && lastRefresh.compareAndSet(last, now);
+    }
+
+    String host(N node) {
+        for (Map.Entry<String, N> entry : nodes.entrySet()) {
+            if (entry.getValue().equals(node)) {
+                return entry.getKey().substring(0, entry.getKey().lastIndexOf(':'));
+            }
+        }
+        throw new IllegalArgumentException("Unknown node: " + node);
+    }
+
+    // A CLUSTER SLOTS reply from the given node; the nodes that no longer serve any slot are returned
+    Set<N> update(RespValue reply, String replyingHost) {
+        N[] updated = newSlots();
+        for (RespValue range : reply.asList()) {
+            RespValue master = range.get(2);
+            String host = master.get(0).asString();
+            // An empty host is the address of the node that replied
+            N node = node(host == null || host.isEmpty() ? replyingHost : host,
+                    (int) master.get(1).asLong());
+            for (int slot = (int) range.get(0).asLong(); slot <= range.get(1).asLong(); slot++) {
+                updated[slot] = node;
+            }
+        }
+        slots = updated;
+        Set<N> unused = new HashSet<>(nodes.values());
+        for (N node : updated) {
+            unused.remove(node);
+        }
+        unused.removeAll(seeds);
+        nodes.values().removeAll(unused);
+        return unused;
+    }
+
+    int slot(Object routingKey) {
+        if (routingKey instanceof byte[]) {
+            byte[] key = (byte[]) routingKey;
+            return slot(ByteBuffer.wrap(key));
+        } else if (routingKey instanceof Key) {
+            return slot(((Key) routingKey).bytes());
+        } else if (routingKey instanceof CharSequence) {
+            CharSequence key = (CharSequence) routingKey;
+            return ascii(key) ? slot(key) : slot(charset.encode(CharBuffer.wrap(key)));
+        }
+        throw new IllegalArgumentException("Cluster routing keys are CharSequence or byte[]: " + routingKey);
+    }
+
+    // Only the part of the key between the first { and the next } is hashed, when it is not empty
+    private static int slot(ByteBuffer key) {
+        int from = key.position();
+        int to = key.limit();
+        for (int i = from; i < to; i++) {
+            if (key.get(i) == '{') {
+                for (int j = i + 1; j < to; j++) {
+                    if (key.get(j) == '}') {
+                        if (j > i + 1) {
+                            from = i + 1;
+                            to = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = (crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ key.get(i)) & 0xff];
+        }
+        return (crc & 0xffff) % SLOTS;
+    }
+
+    private static int slot(CharSequence key) {
+        int from = 0;
+        int to = key.length();
+        for (int i = from; i < to; i++) {
+            if (key.charAt(i) == '{') {
+                for (int j = i + 1; j < to; j++) {
+                    if (key.charAt(j) == '}') {
+                        if (j > i + 1) {
+                            from = i + 1;
+                            to = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = (crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ key.charAt(i)) & 0xff];
+        }
+        return (crc & 0xffff) % SLOTS;
+    }
+
+    private static boolean ascii(CharSequence key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The first argument of most commands is their key, or an array of keys that share a slot; null when it cannot be a
+    // key, such as a number
+    @Nullable
+    static Object routingKey(@Nullable Object arg) {
+        if (arg instanceof byte[] || arg instanceof CharSequence) {
+            return arg;
+        } else if (arg instanceof Object[]) {
+            Object[] args = (Object[]) arg;
+            return args.length > 0 ? routingKey(args[0]) : null;
+        }
+        return null;
+    }
+
+    // The slot and the address of a MOVED or ASK error, or null for other errors
+    @Nullable
+    static String[] redirect(String error) {
+        if (!error.startsWith("MOVED ") && !error.startsWith("ASK ")) {
+            return null;
+        }
+        String[] parts = error.split(" ");
+        int colon = parts.length == 3 ? parts[2].lastIndexOf(':') : -1;
+        if (colon < 0) {
+            return null;
+        }
+        return new String[]{parts[0], parts[1], parts[2].substring(0, colon), parts[2].substring(colon + 1)};
+    }
+
+    private static <T> Request<T> request(ReplyParser<? extends T> parser, CharSequence... args) {
+        return new Request<T>() {
+            @Override
+            public CommandWriter writer() {
+                return sink -> {
+                    sink.array(args.length);
+                    for (CharSequence arg : args) {
+                        sink.bulkString(arg);
+                    }
+                };
+            }
+
+            @Override
+            public ReplyParser<? extends T> parser() {
+                return parser;
+            }
+        };
+    }
+}
@@ -24,13 +24,21 @@ public interface Command<T> extends Request<T> {
         };
     }
 
+    @Override
+    default void release() {
+        for (RespArrayElementsWriter paramWriter : writers()) {
+            paramWriter.release();
+        }
+    }
+
+    // The value is encoded once, so the writer that is released is the one that was written
     default <V> Command<T> append(OptionalValue<V> name, V value) {
+        RespArrayElementsWriter[] writers = Stream.concat(Arrays.stream(writers()),
+                Stream.of(name.nameWriter(), name.encoder().encode(value))).toArray(RespArrayElementsWriter[]::new);
         return new Command<T>() {
             @Override
             public RespArrayElementsWriter[] writers() {
-                return Stream.concat(Arrays.stream(Command.this.writers()),
-                        Stream.of(name.nameWriter(), name.encoder().encode(value)))
-                        .toArray(RespArrayElementsWriter[]::new);
+                return writers;
             }
 
             @Override
@@ -1,14 +1,15 @@
 package xnioredis;
 
+import xnioredis.decoder.ArrayBuilderFactory;
+import xnioredis.decoder.ByteView;
 import xnioredis.decoder.parser.ReplyParser;
+import xnioredis.decoder.parser.ReplySequence;
 import xnioredis.encoder.RespSink;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
 import java.util.function.BiFunction;
-import java.util.function.Function;
 
 public class CommandPair<T1, T2, R> implements Request<R> {
 
@@ -37,52 +38,39 @@ public class CommandPair<T1, T2, R> implements Request<R> {
     }
 
     @Override
-    public ReplyParser<R> parser() {
-        return new ReplyParser1<>(request1.parser(), request2.parser(), biFunction);
+    public void release() {
+        request1.release();
+        request2.release();
     }
 
-    private static class ReplyParser1<T1, T2, R> implements ReplyParser<R> {
-        private final ReplyParser<? extends T1> parser1;
-        private final ReplyParser<? extends T2> parser2;
-        private final BiFunction<T1, T2, R> biFunction;
-
-        public ReplyParser1(ReplyParser<? extends T1> parser1, ReplyParser<? extends T2> parser2,
-                BiFunction<T1, T2, R> biFunction) {
-            this.parser1 = parser1;
-            this.parser2 = parser2;
-            this.biFunction = biFunction;
-        }
+    @Override
+    public ReplyParser<R> parser() {
+        return new ReplySequence<Object, R>(Arrays.asList(request1.parser(), request2.parser()),
+                length -> new ArrayBuilderFactory.Builder<Object, R>() {
+                    private Object value1;
+                    private Object value2;
+                    private int i = 0;
 
-        @Override
-        public <U> U parseReply(ByteBuffer buffer, Function<? super R, U> resultHandler,
-                PartialReplyHandler<? super R, U> partialReplyHandler, FailureHandler<U> failureHandler,
-                CharsetDecoder charsetDecoder) {
-            return parser1.parseReply(buffer, new Function<T1, U>() {
-                        @Override
-                        public U apply(@Nullable T1 value1) {
-                            return parse2(buffer, resultHandler, partialReplyHandler, failureHandler, value1, parser2);
+                    @Override
+                    public void add(@Nullable Object element) {
+                        if (i++ == 0) {
+                            value1 = element;
+                        } else {
+                            value2 = element;
                         }
+                    }
 
-                        private <U1> U1 parse2(ByteBuffer buffer, Function<? super R, U1> resultHandler,
-                                PartialReplyHandler<? super R, U1> partialReplyHandler,
-                                FailureHandler<U1> failureHandler, @Nullable T1 value1,
-                                ReplyParser<? extends T2> parser2) {
-                            return parser2
-                                    .parseReply(buffer, value2 -> resultHandler.apply(biFunction.apply(value1, value2)),
-                                            partial -> partialReplyHandler.partialReply(new ReplyParser<R>() {
-                                                @Override
-                                                public <U2> U2 parseReply(ByteBuffer buffer,
-                                                        Function<? super R, U2> resultHandler,
-                                                        PartialReplyHandler<? super R, U2> partialReplyHandler,
-                                                        FailureHandler<U2> failureHandler,
-                                                        CharsetDecoder charsetDecoder) {
-                                                    return parse2(buffer, resultHandler, partialReplyHandler,
-                                                            failureHandler, value1, partial);
-                                                }
-                                            }), failureHandler, charsetDecoder);
-                        }
-                    }, partial -> partialReplyHandler.partialReply(new ReplyParser1<>(partial, parser2, biFunction)),
-                    failureHandler, charsetDecoder);
-        }
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public R build() {
+                        return biFunction.apply((T1) value1, (T2) value2);
+                    }
+
+                    @Override
+                    public void discard() {
+                        ByteView.releaseAll(value1);
+                        ByteView.releaseAll(value2);
+                    }
+                });
     }
 }
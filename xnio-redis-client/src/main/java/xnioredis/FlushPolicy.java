@@ -0,0 +1,35 @@
+package xnioredis;
+
+import org.xnio.OptionMap;
+
+class FlushPolicy {
+    static final FlushPolicy DEFAULT = new FlushPolicy(64 * 1024, Integer.MAX_VALUE, 0);
+    private final int maxBytes;
+    private final int maxCommands;
+    private final int lingerMicros;
+
+    FlushPolicy(int maxBytes, int maxCommands, int lingerMicros) {
+        if (maxBytes < 1 || maxCommands < 1 || lingerMicros < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid flush policy: " + maxBytes + " bytes, " + maxCommands + " commands, " + lingerMicros +
+                            " us");
+        }
+        this.maxBytes = maxBytes;
+        this.maxCommands = maxCommands;
+        this.lingerMicros = lingerMicros;
+    }
+
+    static FlushPolicy from(OptionMap options) {
+        return new FlushPolicy(options.get(RedisOptions.FLUSH_MAX_BYTES, DEFAULT.maxBytes),
+                options.get(RedisOptions.FLUSH_MAX_COMMANDS, DEFAULT.maxCommands),
+                options.get(RedisOptions.FLUSH_LINGER_MICROS, DEFAULT.lingerMicros));
+    }
+
+    boolean isFull(long bytes, int commands) {
+        return bytes >= maxBytes || commands >= maxCommands;
+    }
+
+    int lingerMicros() {
+        return lingerMicros;
+    }
+}
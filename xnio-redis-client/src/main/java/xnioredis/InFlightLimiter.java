@@ -0,0 +1,146 @@
+package xnioredis;
+
+import org.xnio.XnioIoThread;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class InFlightLimiter {
+    private static final int INITIAL_ADAPTIVE_LIMIT = 20;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final int LONG_WINDOW = 600;
+    private static final int SHORT_WINDOW = 10;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockNanos;
+    private volatile int limit;
+    private volatile int waiters = 0;
+    // Adaptive state, only touched by the IO thread
+    private double estimatedLimit;
+    private double shortRtt = 0;
+    private double longRtt = 0;
+
+    InFlightLimiter(int maxLimit, boolean adaptive, OverflowPolicy overflowPolicy, long blockNanos) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("In-flight limit must be positive: " + maxLimit);
+        }
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.overflowPolicy = overflowPolicy;
+        this.blockNanos = blockNanos;
+        this.limit = adaptive ? Math.min(INITIAL_ADAPTIVE_LIMIT, maxLimit) : maxLimit;
+        this.estimatedLimit = limit;
+    }
+
+    static InFlightLimiter unlimited() {
+        return new InFlightLimiter(Integer.MAX_VALUE, false, OverflowPolicy.REJECT, 0);
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    boolean acquire(long maxWaitNanos) {
+        if (tryAcquire()) {
+            return true;
+        }
+        // Parking an IO thread would stall the very connection that has to drain the window
+        if (overflowPolicy != OverflowPolicy.BLOCK || Thread.currentThread() instanceof XnioIoThread) {
+            return false;
+        }
+        long deadline = System.nanoTime() + Math.min(blockNanos, maxWaitNanos);
+        synchronized (this) {
+            waiters++;
+            try {
+                while (!tryAcquire()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    // The free part of the window is taken in one go; BLOCK then waits for the rest one by one
+    int acquire(int permits, long maxWaitNanos) {
+        int acquired = tryAcquire(permits);
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (acquired < permits && overflowPolicy == OverflowPolicy.BLOCK &&
+                acquire(Math.max(0, deadline - System.nanoTime()))) {
+            acquired++;
+        }
+        return acquired;
+    }
+
+    private int tryAcquire(int permits) {
+        int current;
+        int granted;
+        do {
+            current = inFlight.get();
+            granted = Math.min(permits, limit - current);
+            if (granted <= 0) {
+                return 0;
+            }
+        } while (!inFlight.compareAndSet(current, current + granted));
+        return granted;
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+        if (waiters > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    void replied(long submittedNanos) {
+        if (!adaptive) {
+            return;
+        }
+        double rtt = System.nanoTime() - submittedNanos;
+        if (longRtt == 0) {
+            shortRtt = rtt;
+            longRtt = rtt;
+        }
+        shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+        longRtt += (rtt - longRtt) / LONG_WINDOW;
+        // Let the baseline follow a latency drop quickly, otherwise the window stays pinned at its maximum
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+        if (inFlight.get() < estimatedLimit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        estimatedLimit = Math.max(1, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+        limit = (int) estimatedLimit;
+    }
+}
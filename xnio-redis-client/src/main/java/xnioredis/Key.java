@@ -0,0 +1,68 @@
+package xnioredis;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+// A key encoded once with its bulk string header and CRLF, so writing it is a single copy. Being a CharSequence it
+// goes wherever a strArg() does; a client of another charset encodes it like any other CharSequence
+public final class Key implements CharSequence {
+    private final String string;
+    private final Charset charset;
+    private final byte[] resp;
+    private final int offset;
+
+    public Key(CharSequence key, Charset charset) {
+        this.string = key.toString();
+        this.charset = charset;
+        byte[] bytes = string.getBytes(charset);
+        byte[] header = ("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.offset = header.length;
+        this.resp = new byte[offset + bytes.length + 2];
+        System.arraycopy(header, 0, resp, 0, offset);
+        System.arraycopy(bytes, 0, resp, offset, bytes.length);
+        resp[resp.length - 2] = '\r';
+        resp[resp.length - 1] = '\n';
+    }
+
+    // The whole bulk string, which must not be modified, or null when it is not in the charset
+    @Nullable
+    byte[] resp(Charset charset) {
+        return this.charset.equals(charset) ? resp : null;
+    }
+
+    ByteBuffer bytes() {
+        return ByteBuffer.wrap(resp, offset, resp.length - offset - 2);
+    }
+
+    @Override
+    public int length() {
+        return string.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return string.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return string.subSequence(start, end);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Key && string.equals(((Key) o).string) && charset.equals(((Key) o).charset);
+    }
+
+    @Override
+    public int hashCode() {
+        return string.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return string;
+    }
+}
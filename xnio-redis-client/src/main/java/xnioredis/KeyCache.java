@@ -0,0 +1,72 @@
+package xnioredis;
+
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// The encoded keys of the most used names. Once it holds maxSize keys a second chance sweep drops the ones that were
+// not asked for since the last sweep; a key that comes after that is encoded but not kept
+public final class KeyCache {
+    private final ConcurrentHashMap<String, Entry> keys = new ConcurrentHashMap<>();
+    private final Charset charset;
+    private final int maxSize;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    KeyCache(Charset charset, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid key cache size: " + maxSize);
+        }
+        this.charset = charset;
+        this.maxSize = maxSize;
+    }
+
+    public Key key(CharSequence name) {
+        if (name instanceof Key && ((Key) name).resp(charset) != null) {
+            return (Key) name;
+        }
+        String string = name.toString();
+        Entry entry = keys.get(string);
+        if (entry != null) {
+            entry.used = true;
+            return entry.key;
+        }
+        Key key = new Key(string, charset);
+        if (keys.size() >= maxSize && evicting.compareAndSet(false, true)) {
+            try {
+                evict();
+            } finally {
+                evicting.set(false);
+            }
+        }
+        if (keys.size() < maxSize) {
+            keys.putIfAbsent(string, new Entry(key));
+        }
+        return key;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = keys.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.used) {
+                entry.used = false;
+            } else {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private volatile boolean used;
+
+        private Entry(Key key) {
+            this.key = key;
+        }
+    }
+}
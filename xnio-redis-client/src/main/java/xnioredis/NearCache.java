@@ -0,0 +1,207 @@
+package xnioredis;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decoded replies of reads kept coherent by CLIENT TRACKING: the server pushes the keys that changed after a connection
+// read them. The replies are grouped by key, so an invalidation drops every cached read of the key. Once their
+// estimated weight passes maxBytes they are evicted with a second chance sweep.
+// Cached replies are shared by every caller that gets them and must not be modified
+public final class NearCache {
+    // A rough size of an entry and its place in the maps
+    private static final int ENTRY_WEIGHT = 96;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Object, Entry>> keys = new ConcurrentHashMap<>();
+    private final long maxBytes;
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private volatile boolean disabled = false;
+
+    NearCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid near cache size: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    @Nullable
+    Entry get(String key, Object read) {
+        Map<Object, Entry> reads = keys.get(key);
+        Entry entry = reads == null ? null : reads.get(read);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.used = true;
+        hits.increment();
+        return entry;
+    }
+
+    // Called on the IO thread as the reply is decoded, so an invalidation that follows it is applied after it
+    void put(String key, Object read, @Nullable Object value) {
+        if (disabled || value instanceof AutoCloseable) {
+            // Such as views of pooled buffers that the caller releases
+            return;
+        }
+        Entry entry = new Entry(value, ENTRY_WEIGHT + key.length() * 2 + weigh(value));
+        if (entry.weight > maxBytes) {
+            return;
+        }
+        keys.compute(key, (k, reads) -> {
+            if (reads == null) {
+                reads = new ConcurrentHashMap<>(4);
+            }
+            Entry old = reads.put(read, entry);
+            weight.addAndGet(old == null ? entry.weight : entry.weight - old.weight);
+            return reads;
+        });
+        if (weight.get() > maxBytes && evicting.compareAndSet(false, true)) {
+            try {
+                evict();
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    void invalidate(String key) {
+        if (drop(key)) {
+            invalidations.increment();
+        }
+    }
+
+    // When invalidations may have been missed, such as when a connection is lost
+    void clear() {
+        for (String key : keys.keySet()) {
+            drop(key);
+        }
+    }
+
+    // The server cannot track keys
+    void disable() {
+        disabled = true;
+        clear();
+    }
+
+    private boolean drop(String key) {
+        Map<Object, Entry> reads = keys.remove(key);
+        if (reads == null) {
+            return false;
+        }
+        long dropped = 0;
+        for (Entry entry : reads.values()) {
+            dropped += entry.weight;
+        }
+        weight.addAndGet(-dropped);
+        return true;
+    }
+
+    // The first pass spares the entries read since the last sweep, the second one does not
+    private void evict() {
+        for (int pass = 0; pass < 2 && weight.get() > maxBytes; pass++) {
+            Iterator<String> iterator = keys.keySet().iterator();
+            while (weight.get() > maxBytes && iterator.hasNext()) {
+                keys.computeIfPresent(iterator.next(), (k, reads) -> {
+                    reads.values().removeIf(entry -> {
+                        if (entry.used) {
+                            entry.used = false;
+                            return false;
+                        }
+                        weight.addAndGet(-entry.weight);
+                        evictions.increment();
+                        return true;
+                    });
+                    return reads.isEmpty() ? null : reads;
+                });
+            }
+        }
+    }
+
+    // An estimate of the heap taken by a decoded reply
+    private static long weigh(@Nullable Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        } else if (value instanceof CharSequence) {
+            return 48 + ((CharSequence) value).length() * 2;
+        } else if (value instanceof Collection) {
+            long w = 32;
+            for (Object element : (Collection<?>) value) {
+                w += 8 + weigh(element);
+            }
+            return w;
+        } else if (value instanceof Map) {
+            long w = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                w += 32 + weigh(entry.getKey()) + weigh(entry.getValue());
+            }
+            return w;
+        } else if (value instanceof Object[]) {
+            long w = 16;
+            for (Object element : (Object[]) value) {
+                w += 8 + weigh(element);
+            }
+            return w;
+        } else if (value.getClass().isArray()) {
+            return 16 + Array.getLength(value) * 8L;
+        }
+        return 16;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getWeight() {
+        return weight.get();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    @Override
+    public String toString() {
+        return "NearCache{weight=" + getWeight() + ", maxBytes=" + maxBytes + ", hits=" + getHits() + ", misses=" +
+                getMisses() + ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + '}';
+    }
+
+    static final class Entry {
+        @Nullable final Object value;
+        final long weight;
+        // Set by hits, cleared by eviction sweeps
+        volatile boolean used;
+
+        private Entry(@Nullable Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package xnioredis;
+
+public enum OverflowPolicy {
+    REJECT,
+    BLOCK
+}
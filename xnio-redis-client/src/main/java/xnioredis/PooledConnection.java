@@ -0,0 +1,240 @@
+package xnioredis;
+
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.Pool;
+import org.xnio.StreamConnection;
+import org.xnio.XnioIoThread;
+import xnioredis.RedisClientConnection.CommandEncoderDecoder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+class PooledConnection {
+    private final SubmissionQueue<CommandEncoderDecoder> writerQueue;
+    // Idempotent commands that were in flight when the connection was lost; only touched by the IO thread
+    private final Queue<CommandEncoderDecoder> retryQueue = new ArrayDeque<>();
+    private final InFlightLimiter limiter;
+    private final WriteStatistics writeStatistics = new WriteStatistics();
+    private final Supplier<IoFuture<StreamConnection>> connector;
+    private final XnioIoThread ioThread;
+    private final ReconnectPolicy reconnectPolicy;
+    // Told when the connection is lost or could not be made
+    private final Runnable lostListener;
+    private final IoFuture.HandlingNotifier<StreamConnection, Void> notifier;
+    private final Function<XnioIoThread, TimeoutWheel> timeoutWheels;
+    private volatile IoFuture<StreamConnection> streamConnectionFuture;
+    private volatile RedisClientConnection redisClientConnection;
+    private volatile IOException failure;
+    private volatile boolean closed = false;
+    private int reconnectAttempt = 0;
+    // Only touched by the IO thread
+    private boolean watchingOutage = false;
+
+    // ioThread schedules reconnects and expires what is queued meanwhile; it may be null when reconnectPolicy is
+    // disabled
+    PooledConnection(Supplier<IoFuture<StreamConnection>> connector, XnioIoThread ioThread,
+            Pool<ByteBuffer> bufferPool, Charset charset, int queueSize, FlushPolicy flushPolicy,
+            Function<XnioIoThread, TimeoutWheel> timeoutWheels, InFlightLimiter limiter,
+            ReconnectPolicy reconnectPolicy, boolean resp3, boolean tracking, RedisClientConnection.Listener listener,
+            @Nullable RedisClientConnection.Subscriber subscriber, Runnable lostListener) {
+        this.connector = connector;
+        this.ioThread = ioThread;
+        this.reconnectPolicy = reconnectPolicy;
+        this.lostListener = lostListener;
+        this.limiter = limiter;
+        this.writerQueue = new SubmissionQueue<>(queueSize);
+        this.timeoutWheels = timeoutWheels;
+        this.notifier = new IoFuture.HandlingNotifier<StreamConnection, Void>() {
+            @Override
+            public void handleFailed(IOException exception, Void v) {
+                lost(exception);
+            }
+
+            @Override
+            public void handleCancelled(Void v) {
+                cancelQueued();
+            }
+
+            @Override
+            public void handleDone(StreamConnection data, Void v) {
+                if (closed) {
+                    IoUtils.safeClose(data);
+                    return;
+                }
+                reconnectAttempt = 0;
+                redisClientConnection = new RedisClientConnection(data, bufferPool, charset, writerQueue, flushPolicy,
+                        writeStatistics, timeoutWheels.apply(data.getIoThread()), retryQueue,
+                        PooledConnection.this::lost, resp3, tracking, listener, subscriber);
+                if (!writerQueue.isEmpty() || !retryQueue.isEmpty()) {
+                    redisClientConnection.commandAdded();
+                }
+            }
+        };
+        if (reconnectPolicy.enabled()) {
+            onIoThread(this::watchOutage);
+        }
+        connect();
+    }
+
+    private void connect() {
+        if (closed) {
+            cancelQueued();
+            return;
+        }
+        streamConnectionFuture = connector.get();
+        streamConnectionFuture.addNotifier(notifier, null);
+    }
+
+    private void lost(IOException exception) {
+        redisClientConnection = null;
+        lostListener.run();
+        if (closed) {
+            cancelQueued();
+        } else if (reconnectPolicy.enabled()) {
+            onIoThread(this::watchOutage);
+            ioThread.executeAfter(this::connect, reconnectPolicy.delayNanos(reconnectAttempt++),
+                    TimeUnit.NANOSECONDS);
+        } else {
+            failure = exception;
+            failRetries(exception);
+            failQueued(exception);
+        }
+    }
+
+    private void onIoThread(Runnable task) {
+        if (Thread.currentThread() == ioThread) {
+            task.run();
+        } else {
+            ioThread.execute(task);
+        }
+    }
+
+    // Requests wait in the queue while there is no connection, and the wheel expires them on every tick until then
+    private void watchOutage() {
+        if (!watchingOutage) {
+            watchingOutage = true;
+            timeoutWheels.apply(ioThread).watch(this::expireDuringOutage);
+        }
+    }
+
+    private boolean expireDuringOutage() {
+        if (closed || redisClientConnection != null) {
+            watchingOutage = false;
+            return false;
+        }
+        long now = System.nanoTime();
+        writerQueue.forEach(command -> command.expire(now));
+        return true;
+    }
+
+    @Nullable
+    XnioIoThread ioThread() {
+        return ioThread;
+    }
+
+    IOException failure() {
+        return failure;
+    }
+
+    WriteStatistics writeStatistics() {
+        return writeStatistics;
+    }
+
+    int pending() {
+        return limiter.inFlight();
+    }
+
+    boolean acquire(long maxWaitNanos) {
+        return limiter.acquire(maxWaitNanos);
+    }
+
+    // As many as the window has room for, up to permits
+    int acquire(int permits, long maxWaitNanos) {
+        return limiter.acquire(permits, maxWaitNanos);
+    }
+
+    // The commands take consecutive places in the queue, and the IO thread is woken up once for all of them
+    boolean addAll(List<CommandEncoderDecoder> commands) {
+        int size = commands.size();
+        boolean outage = redisClientConnection == null && reconnectPolicy.enabled();
+        if (outage && writerQueue.size() + size > reconnectPolicy.outageQueueLimit() ||
+                !writerQueue.offerAll(commands)) {
+            for (int i = 0; i < size; i++) {
+                limiter.release();
+            }
+            return false;
+        }
+        return added();
+    }
+
+    boolean add(CommandEncoderDecoder command) {
+        boolean outage = redisClientConnection == null && reconnectPolicy.enabled();
+        if (outage && writerQueue.size() >= reconnectPolicy.outageQueueLimit() || !writerQueue.offer(command)) {
+            limiter.release();
+            return false;
+        }
+        return added();
+    }
+
+    private boolean added() {
+        RedisClientConnection connection = redisClientConnection;
+        if (connection != null) {
+            connection.commandAdded();
+        } else if (failure != null) {
+            failQueued(failure);
+        }
+        return true;
+    }
+
+    void replied(long submittedNanos) {
+        limiter.replied(submittedNanos);
+    }
+
+    void done() {
+        limiter.release();
+    }
+
+    private void failRetries(Throwable e) {
+        CommandEncoderDecoder command;
+        while ((command = retryQueue.poll()) != null) {
+            command.fail(e);
+        }
+    }
+
+    private synchronized void cancelQueued() {
+        CommandEncoderDecoder command;
+        while ((command = retryQueue.poll()) != null) {
+            command.cancel();
+        }
+        while ((command = writerQueue.poll()) != null) {
+            command.cancel();
+        }
+    }
+
+    private synchronized void failQueued(Throwable e) {
+        CommandEncoderDecoder commandEncoderDecoder;
+        while ((commandEncoderDecoder = writerQueue.poll()) != null) {
+            commandEncoderDecoder.fail(e);
+        }
+    }
+
+    void close() {
+        closed = true;
+        IoUtils.safeClose(streamConnectionFuture);
+        RedisClientConnection connection = redisClientConnection;
+        if (connection != null) {
+            connection.close();
+        } else if (!reconnectPolicy.enabled()) {
+            cancelQueued();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package xnioredis;
+
+import org.xnio.OptionMap;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+class ReconnectPolicy {
+    static final ReconnectPolicy NONE = new ReconnectPolicy(false, 0, 0, 0);
+    private final boolean enabled;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final int outageQueueLimit;
+
+    ReconnectPolicy(boolean enabled, long minDelayNanos, long maxDelayNanos, int outageQueueLimit) {
+        if (minDelayNanos < 0 || maxDelayNanos < minDelayNanos || outageQueueLimit < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid reconnect policy: " + minDelayNanos + ".." + maxDelayNanos + " ns, " + outageQueueLimit +
+                            " queued");
+        }
+        this.enabled = enabled;
+        this.minDelayNanos = minDelayNanos;
+        this.maxDelayNanos = maxDelayNanos;
+        this.outageQueueLimit = outageQueueLimit;
+    }
+
+    static ReconnectPolicy from(OptionMap options) {
+        return new ReconnectPolicy(options.get(RedisOptions.RECONNECT, true),
+                TimeUnit.MILLISECONDS.toNanos(options.get(RedisOptions.RECONNECT_MIN_DELAY, 50)),
+                TimeUnit.MILLISECONDS.toNanos(options.get(RedisOptions.RECONNECT_MAX_DELAY, 10000)),
+                options.get(RedisOptions.OUTAGE_QUEUE_LIMIT, 1024));
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    int outageQueueLimit() {
+        return outageQueueLimit;
+    }
+
+    long delayNanos(int attempt) {
+        long delay = minDelayNanos << Math.min(attempt, 30);
+        if (delay <= 0 || delay > maxDelayNanos) {
+            delay = maxDelayNanos;
+        }
+        // Half fixed, half random so that pooled connections do not reconnect in lockstep
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+}
@@ -1,94 +1,308 @@
 package xnioredis;
 
 import com.google.common.base.Throwables;
+import org.xnio.IoUtils;
 import org.xnio.Pool;
-import org.xnio.Pooled;
 import org.xnio.StreamConnection;
+import org.xnio.XnioIoThread;
 import org.xnio.channels.StreamSinkChannel;
 import org.xnio.channels.StreamSourceChannel;
+import xnioredis.decoder.Replies;
+import xnioredis.decoder.RespValue;
+import xnioredis.decoder.parser.FrameDecoder;
+import xnioredis.decoder.parser.ReplyParser;
 import xnioredis.encoder.RespSink;
+import xnioredis.internal.ReadBuffer;
 
+import javax.annotation.Nullable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 class RedisClientConnection {
-    private final BlockingQueue<ReplyDecoder> decoderQueue = new LinkedBlockingQueue<>();
+    // Only touched by the IO thread: the read and write handlers of a connection run on the same thread.
+    // The head of decoderQueue is the command whose reply is being parsed; it is polled once the reply is complete
+    private final Queue<CommandEncoderDecoder> decoderQueue = new ArrayDeque<>();
+    private final Queue<CommandEncoderDecoder> retryQueue;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final XnioIoThread ioThread;
+    private final StreamConnection connection;
     private final StreamSinkChannel outChannel;
+    private final ByteBufferBundle byteBufferBundle;
+    private final Consumer<IOException> lostListener;
+    private final FrameDecoder frameDecoder;
+    // Takes every frame of a subscriber connection, whose commands are not queued for replies
+    @Nullable private final Subscriber subscriber;
+    // Written ahead of every other command
+    private final Queue<CommandEncoderDecoder> handshake = new ArrayDeque<>();
+    // The head of decoderQueue once its reply has started
     private ReplyDecoder currentDecoder;
+    // RESP3 push frames come between replies and go to the listener instead of decoderQueue
+    private boolean pushing = false;
+    private boolean lost = false;
+    private long batchBytes = 0;
+    private int batchCommands = 0;
+    private boolean lingerExpired = false;
+    // The socket took none of the last write, and the wheel expires the requests queued behind it
+    private boolean stalled = false;
+    private boolean watchingStall = false;
 
     RedisClientConnection(StreamConnection connection, Pool<ByteBuffer> bufferPool, Charset charset,
-            BlockingQueue<CommandEncoderDecoder> commandsQueue) {
-        CharsetDecoder charsetDecoder = charset.newDecoder();
+            SubmissionQueue<CommandEncoderDecoder> commandsQueue, FlushPolicy flushPolicy,
+            WriteStatistics writeStatistics, TimeoutWheel timeoutWheel, Queue<CommandEncoderDecoder> retryQueue,
+            Consumer<IOException> lostListener, boolean resp3, boolean tracking, Listener listener,
+            @Nullable Subscriber subscriber) {
+        this.connection = connection;
+        this.ioThread = connection.getIoThread();
+        this.retryQueue = retryQueue;
+        this.lostListener = lostListener;
+        this.frameDecoder = new FrameDecoder(charset.newDecoder());
+        if (resp3) {
+            // An error means the server predates RESP3 and the connection stays on RESP2
+            handshake.add(setup(error -> {
+            }, "HELLO", "3"));
+        }
+        if (tracking) {
+            handshake.add(setup(listener::trackingFailed, "CLIENT", "TRACKING", "ON"));
+        }
+        this.subscriber = subscriber;
+        if (subscriber != null) {
+            handshake.addAll(subscriber.resubscribe());
+        }
         StreamSourceChannel sourceChannel = connection.getSourceChannel();
         sourceChannel.getReadSetter().set(inChannel -> {
-            try (Pooled<ByteBuffer> pooledByteBuffer = bufferPool.allocate()) {
-                ByteBuffer readBuffer = pooledByteBuffer.getResource();
-                while (inChannel.read(readBuffer) > 0) {
-                    readBuffer.flip();
+            ReadBuffer readBuffer = new ReadBuffer(bufferPool.allocate());
+            try {
+                ReadBuffer.setCurrent(readBuffer);
+                ByteBuffer buffer = readBuffer.buffer();
+                int read;
+                while ((read = inChannel.read(buffer)) > 0) {
+                    buffer.flip();
                     try {
-                        while (readBuffer.hasRemaining()) {
-                            if (decoder().parse(readBuffer, charsetDecoder)) {
+                        while (buffer.hasRemaining()) {
+                            if (subscriber != null) {
+                                if (frameDecoder.decode(buffer, subscriber.parser())) {
+                                    String error = frameDecoder.error();
+                                    subscriber.received(frameDecoder.value(), error);
+                                }
+                            } else if (pushing || currentDecoder == null && buffer.get(buffer.position()) == '>') {
+                                pushing = !frameDecoder.decode(buffer, Replies.valueReply());
+                                if (!pushing) {
+                                    listener.pushed((RespValue) frameDecoder.value());
+                                }
+                            } else if (decoder().parse(buffer, frameDecoder)) {
+                                decoderQueue.poll();
                                 currentDecoder = null;
                             }
                         }
+                        if (subscriber != null) {
+                            subscriber.readDone();
+                        }
                     } finally {
-                        readBuffer.clear();
+                        // Views built from this buffer keep it, so the next read goes to a fresh one
+                        if (readBuffer.isShared()) {
+                            readBuffer.release();
+                            readBuffer = new ReadBuffer(bufferPool.allocate());
+                            ReadBuffer.setCurrent(readBuffer);
+                            buffer = readBuffer.buffer();
+                        } else {
+                            buffer.clear();
+                        }
                     }
                 }
+                if (read < 0) {
+                    connectionLost(new EOFException("Connection closed by server"));
+                }
+            } catch (IOException e) {
+                connectionLost(e);
             } catch (Throwable e) {
-                if (currentDecoder != null) {
-                    currentDecoder.fail(e);
+                // Where the next frame starts is unknown, so the connection cannot be read any further. The command
+                // whose reply failed to decode gets the cause and is not sent again
+                ReplyDecoder failed = currentDecoder != null && currentDecoder == decoderQueue.peek() ?
+                        decoderQueue.poll() : null;
+                connectionLost(new IOException("Connection closed after a reply failed to decode", e));
+                if (failed != null) {
+                    failed.fail(e);
                 }
-                decoderQueue.forEach(decoder -> decoder.fail(e));
+            } finally {
+                ReadBuffer.setCurrent(null);
+                readBuffer.release();
             }
         });
         sourceChannel.resumeReads();
-        ByteBufferBundle byteBufferBundle = new ByteBufferBundle(bufferPool);
+        this.byteBufferBundle = new ByteBufferBundle(bufferPool);
         CharsetEncoder charsetEncoder = charset.newEncoder();
         this.outChannel = connection.getSinkChannel();
+        Runnable lingerTask = () -> {
+            lingerExpired = true;
+            outChannel.resumeWrites();
+        };
+        BooleanSupplier expireStalled = () -> {
+            if (lost || !stalled) {
+                watchingStall = false;
+                return false;
+            }
+            long now = System.nanoTime();
+            commandsQueue.forEach(command -> command.expire(now));
+            return true;
+        };
         this.outChannel.getWriteSetter().set(outChannel -> {
+            if (lost) {
+                return;
+            }
             try {
-                while (!commandsQueue.isEmpty() || !byteBufferBundle.isEmpty()) {
-                    ByteSink byteSink = new ByteBufferSink(byteBufferBundle);
+                while (!handshake.isEmpty() || !retryQueue.isEmpty() || !commandsQueue.isEmpty() ||
+                        !byteBufferBundle.isEmpty()) {
+                    ByteBufferSink byteSink = new ByteBufferSink(byteBufferBundle);
                     RespSink sink = new ByteBuffersRespSink(byteSink, charsetEncoder);
                     CommandEncoderDecoder command;
-                    while (byteBufferBundle.allocSize() <= 1 && (command = commandsQueue.poll()) != null) {
-                        decoderQueue.add(command);
-                        command.writer().write(sink);
+                    while (!flushPolicy.isFull(batchBytes + byteSink.count(), batchCommands) &&
+                            (command = nextCommand(commandsQueue)) != null) {
+                        if (command.prepareWrite(timeoutWheel)) {
+                            if (subscriber == null) {
+                                decoderQueue.add(command);
+                            }
+                            command.writer().write(sink);
+                            batchCommands++;
+                        }
+                    }
+                    batchBytes += byteSink.count();
+                    if (batchCommands > 0) {
+                        if (!lingerExpired && flushPolicy.lingerMicros() > 0 &&
+                                !flushPolicy.isFull(batchBytes, batchCommands)) {
+                            outChannel.suspendWrites();
+                            ioThread.executeAfter(lingerTask, flushPolicy.lingerMicros(), TimeUnit.MICROSECONDS);
+                            return;
+                        }
+                        writeStatistics.flushed(batchCommands);
+                        batchBytes = 0;
+                        batchCommands = 0;
                     }
                     byteBufferBundle.startReading();
                     try {
                         long bytesWritten = outChannel.write(byteBufferBundle.getReadBuffers());
-                        if (bytesWritten == 0) {
+                        writeStatistics.written(bytesWritten);
+                        stalled = bytesWritten == 0;
+                        if (stalled) {
+                            if (!watchingStall) {
+                                watchingStall = true;
+                                timeoutWheel.watch(expireStalled);
+                            }
                             return;
                         }
                     } finally {
                         byteBufferBundle.startWriting();
+                        // Do not hold back bytes that are already late because the socket was full
+                        lingerExpired = !byteBufferBundle.isEmpty();
                     }
                 }
             } catch (IOException e) {
-                if (currentDecoder != null) {
-                    currentDecoder.fail(e);
-                }
-                decoderQueue.forEach(decoder -> decoder.fail(e));
+                connectionLost(e);
+                return;
             }
             outChannel.suspendWrites();
+            writeScheduled.set(false);
+            if (!commandsQueue.isEmpty()) {
+                commandAdded();
+            }
         });
+        if (!handshake.isEmpty()) {
+            commandAdded();
+        }
+    }
+
+    private CommandEncoderDecoder nextCommand(SubmissionQueue<CommandEncoderDecoder> commandsQueue) {
+        if (!handshake.isEmpty()) {
+            return handshake.poll();
+        }
+        return retryQueue.isEmpty() ? commandsQueue.poll() : retryQueue.poll();
+    }
+
+    static CommandEncoderDecoder setup(Consumer<String> errorHandler, CharSequence... args) {
+        return new CommandEncoderDecoder() {
+            @Override
+            public CommandWriter writer() {
+                return sink -> {
+                    sink.array(args.length);
+                    for (CharSequence arg : args) {
+                        sink.bulkString(arg);
+                    }
+                };
+            }
+
+            @Override
+            public boolean prepareWrite(TimeoutWheel timeoutWheel) {
+                return true;
+            }
+
+            @Override
+            public boolean retry() {
+                return false;
+            }
+
+            @Override
+            public boolean parse(ByteBuffer buffer, FrameDecoder frameDecoder) {
+                if (!frameDecoder.decode(buffer, Replies.valueReply())) {
+                    return false;
+                }
+                String error = frameDecoder.error();
+                frameDecoder.value();
+                if (error != null) {
+                    errorHandler.accept(error);
+                }
+                return true;
+            }
+
+            @Override
+            public void fail(Throwable e) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+
+    // Commands still in decoderQueue may have reached the server, so only idempotent ones are sent again
+    private void connectionLost(IOException e) {
+        if (lost) {
+            return;
+        }
+        lost = true;
+        IoUtils.safeClose(connection);
+        byteBufferBundle.free();
+        currentDecoder = null;
+        pushing = false;
+        frameDecoder.reset();
+        CommandEncoderDecoder command;
+        while ((command = decoderQueue.poll()) != null) {
+            if (command.retry()) {
+                retryQueue.add(command);
+            } else {
+                command.fail(e);
+            }
+        }
+        lostListener.accept(e);
     }
 
     private ReplyDecoder decoder() {
         if (currentDecoder == null) {
-            currentDecoder = decoderQueue.poll();
+            currentDecoder = decoderQueue.peek();
             if (currentDecoder == null) {
                 currentDecoder = new ReplyDecoder() {
                     @Override
-                    public boolean parse(ByteBuffer buffer, CharsetDecoder charsetDecoder) throws IOException {
+                    public boolean parse(ByteBuffer buffer, FrameDecoder frameDecoder) throws IOException {
                         int len = buffer.remaining();
                         byte[] bytes = new byte[len];
                         buffer.get(bytes);
@@ -110,18 +324,54 @@ class RedisClientConnection {
     }
 
     void commandAdded() {
-        outChannel.resumeWrites();
+        if (!writeScheduled.get() && writeScheduled.compareAndSet(false, true)) {
+            outChannel.resumeWrites();
+        }
     }
 
     public void close() {
-        if (currentDecoder != null) {
-            currentDecoder.cancel();
+        Runnable cancelAll = () -> {
+            currentDecoder = null;
+            pushing = false;
+            frameDecoder.reset();
+            ReplyDecoder decoder;
+            while ((decoder = decoderQueue.poll()) != null) {
+                decoder.cancel();
+            }
+            // Releases the buffers of callers that were not written
+            byteBufferBundle.free();
+        };
+        try {
+            ioThread.execute(cancelAll);
+        } catch (RejectedExecutionException e) {
+            cancelAll.run();
         }
-        decoderQueue.forEach(ReplyDecoder::cancel);
+    }
+
+    interface Listener {
+        // On the IO thread
+        void pushed(RespValue push);
+
+        void trackingFailed(String error);
+    }
+
+    // Subscription replies and messages come in any order, so a subscriber connection hands every frame to this
+    // instead of pairing it with a command. On the IO thread
+    interface Subscriber {
+        // A framed parser of every frame
+        ReplyParser<?> parser();
+
+        void received(@Nullable Object frame, @Nullable String error);
+
+        // After the frames of a read, which may have been batched
+        void readDone();
+
+        // Written first on every new connection
+        Collection<CommandEncoderDecoder> resubscribe();
     }
 
     interface ReplyDecoder {
-        boolean parse(ByteBuffer buffer, CharsetDecoder charsetDecoder) throws IOException;
+        boolean parse(ByteBuffer buffer, FrameDecoder frameDecoder) throws IOException;
 
         void fail(Throwable e);
 
@@ -130,5 +380,18 @@ class RedisClientConnection {
 
     interface CommandEncoderDecoder extends ReplyDecoder {
         CommandWriter writer();
+
+        boolean prepareWrite(TimeoutWheel timeoutWheel);
+
+        boolean retry();
+
+        // Could not be queued, and the connection has already taken its permit back
+        default void reject(Throwable e) {
+            fail(e);
+        }
+
+        // On the IO thread while it waits to be written; past its deadline it fails and is skipped when taken
+        default void expire(long nowNanos) {
+        }
     }
 }
@@ -0,0 +1,46 @@
+package xnioredis;
+
+import org.xnio.Option;
+
+public final class RedisOptions {
+    public static final Option<Integer> CONNECTIONS = Option.simple(RedisOptions.class, "CONNECTIONS", Integer.class);
+    public static final Option<Integer> SUBMISSION_QUEUE_SIZE =
+            Option.simple(RedisOptions.class, "SUBMISSION_QUEUE_SIZE", Integer.class);
+    public static final Option<Integer> FLUSH_MAX_BYTES =
+            Option.simple(RedisOptions.class, "FLUSH_MAX_BYTES", Integer.class);
+    public static final Option<Integer> FLUSH_MAX_COMMANDS =
+            Option.simple(RedisOptions.class, "FLUSH_MAX_COMMANDS", Integer.class);
+    public static final Option<Integer> FLUSH_LINGER_MICROS =
+            Option.simple(RedisOptions.class, "FLUSH_LINGER_MICROS", Integer.class);
+    public static final Option<Integer> REQUEST_TIMEOUT =
+            Option.simple(RedisOptions.class, "REQUEST_TIMEOUT", Integer.class);
+    public static final Option<Integer> MAX_IN_FLIGHT =
+            Option.simple(RedisOptions.class, "MAX_IN_FLIGHT", Integer.class);
+    public static final Option<Boolean> ADAPTIVE_IN_FLIGHT =
+            Option.simple(RedisOptions.class, "ADAPTIVE_IN_FLIGHT", Boolean.class);
+    public static final Option<OverflowPolicy> OVERFLOW_POLICY =
+            Option.simple(RedisOptions.class, "OVERFLOW_POLICY", OverflowPolicy.class);
+    public static final Option<Integer> OVERFLOW_TIMEOUT =
+            Option.simple(RedisOptions.class, "OVERFLOW_TIMEOUT", Integer.class);
+    public static final Option<Boolean> RECONNECT = Option.simple(RedisOptions.class, "RECONNECT", Boolean.class);
+    public static final Option<Integer> RECONNECT_MIN_DELAY =
+            Option.simple(RedisOptions.class, "RECONNECT_MIN_DELAY", Integer.class);
+    public static final Option<Integer> RECONNECT_MAX_DELAY =
+            Option.simple(RedisOptions.class, "RECONNECT_MAX_DELAY", Integer.class);
+    public static final Option<Integer> OUTAGE_QUEUE_LIMIT =
+            Option.simple(RedisOptions.class, "OUTAGE_QUEUE_LIMIT", Integer.class);
+    // 3 to switch every connection to RESP3 with HELLO 3; a server that does not know HELLO stays on RESP2
+    public static final Option<Integer> PROTOCOL = Option.simple(RedisOptions.class, "PROTOCOL", Integer.class);
+    // Enables the near cache of sendCached_ with this estimated heap limit; it needs RESP3, which becomes the default
+    public static final Option<Long> NEAR_CACHE_MAX_BYTES =
+            Option.simple(RedisOptions.class, "NEAR_CACHE_MAX_BYTES", Long.class);
+    // Keeps the keys encoded by key() up to this count
+    public static final Option<Integer> KEY_CACHE_SIZE =
+            Option.simple(RedisOptions.class, "KEY_CACHE_SIZE", Integer.class);
+    // How often a cluster client reloads the slot map, in milliseconds; 0 leaves it to MOVED redirects
+    public static final Option<Integer> CLUSTER_REFRESH_INTERVAL =
+            Option.simple(RedisOptions.class, "CLUSTER_REFRESH_INTERVAL", Integer.class);
+
+    private RedisOptions() {
+    }
+}
@@ -6,4 +6,36 @@ public interface Request<T> {
     CommandWriter writer();
 
     ReplyParser<? extends T> parser();
+
+    default boolean isIdempotent() {
+        return false;
+    }
+
+    // Called once its future is done, whether it was sent, sent several times or never sent at all
+    default void release() {
+    }
+
+    static <T> Request<T> idempotent(Request<T> request) {
+        return new Request<T>() {
+            @Override
+            public CommandWriter writer() {
+                return request.writer();
+            }
+
+            @Override
+            public ReplyParser<? extends T> parser() {
+                return request.parser();
+            }
+
+            @Override
+            public boolean isIdempotent() {
+                return true;
+            }
+
+            @Override
+            public void release() {
+                request.release();
+            }
+        };
+    }
 }
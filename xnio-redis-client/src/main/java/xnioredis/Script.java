@@ -0,0 +1,100 @@
+package xnioredis;
+
+import xnioredis.commands.BulkStringLiteral;
+import xnioredis.decoder.Replies;
+import xnioredis.decoder.RespValue;
+import xnioredis.decoder.parser.ReplyParser;
+import xnioredis.encoder.MultiEncoder;
+import xnioredis.encoder.RespArrayElementsWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// A Lua script that is always called with EVALSHA. A server that does not have it replies NOSCRIPT, and the client
+// then loads it and calls it again on the same connection, so the body is only sent to servers that miss it
+public final class Script {
+    private static final RespArrayElementsWriter EVALSHA = new BulkStringLiteral("EVALSHA");
+    private static final RespArrayElementsWriter SCRIPT = new BulkStringLiteral("SCRIPT");
+    private static final RespArrayElementsWriter LOAD = new BulkStringLiteral("LOAD");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Encoded once and for all, as the server hashes the bytes and the SHA1 must match whatever the client charset
+    private final byte[] body;
+    private final String sha1;
+    private final RespArrayElementsWriter sha1Writer;
+
+    public Script(String body) {
+        this.body = body.getBytes(StandardCharsets.UTF_8);
+        this.sha1 = sha1(this.body);
+        this.sha1Writer = new BulkStringLiteral(sha1);
+    }
+
+    public String sha1() {
+        return sha1;
+    }
+
+    public <K, A, T> Call<K, A, T> define(MultiEncoder<? super K> keysEncoder, MultiEncoder<? super A> argsEncoder,
+            ReplyParser<? extends T> parser) {
+        return (keys, args) -> new Evaluation<>(keysEncoder.encode(keys), argsEncoder.encode(args), parser);
+    }
+
+    private static String sha1(byte[] bytes) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    public interface Call<K, A, T> {
+        Command<T> apply(K keys, A args);
+    }
+
+    // The client recognizes the calls of scripts by this type when they fail with NOSCRIPT
+    final class Evaluation<T> implements Command<T> {
+        private final RespArrayElementsWriter keys;
+        private final RespArrayElementsWriter args;
+        private final ReplyParser<? extends T> parser;
+
+        private Evaluation(RespArrayElementsWriter keys, RespArrayElementsWriter args,
+                ReplyParser<? extends T> parser) {
+            this.keys = keys;
+            this.args = args;
+            this.parser = parser;
+        }
+
+        @Override
+        public RespArrayElementsWriter[] writers() {
+            return new RespArrayElementsWriter[]{EVALSHA, sha1Writer, sink -> sink.bulkString(keys.size()), keys,
+                    args};
+        }
+
+        @Override
+        public ReplyParser<? extends T> parser() {
+            return parser;
+        }
+
+        // SCRIPT LOAD and the call again, which does not fall back a second time
+        Request<T> loaded() {
+            Command<RespValue> load = new Command<RespValue>() {
+                @Override
+                public RespArrayElementsWriter[] writers() {
+                    return new RespArrayElementsWriter[]{SCRIPT, LOAD, sink -> sink.bulkString(body)};
+                }
+
+                @Override
+                public ReplyParser<? extends RespValue> parser() {
+                    return Replies.valueReply();
+                }
+            };
+            return new CommandPair<>(load, this, (sha1, value) -> value);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package xnioredis;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+class SubmissionQueue<E> {
+    private final AtomicReferenceArray<E> elements;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    SubmissionQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.elements = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    boolean offer(E element) {
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() > mask) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        elements.lazySet((int) index & mask, element);
+        return true;
+    }
+
+    // All or none, in consecutive slots, so the elements of other producers do not land between them
+    boolean offerAll(List<? extends E> batch) {
+        int size = batch.size();
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index + size - consumerIndex.get() > mask + 1) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + size));
+        for (int i = 0; i < size; i++) {
+            elements.lazySet((int) (index + i) & mask, batch.get(i));
+        }
+        return true;
+    }
+
+    E poll() {
+        long index = consumerIndex.get();
+        int offset = (int) index & mask;
+        E element = elements.get(offset);
+        if (element == null) {
+            if (index == producerIndex.get()) {
+                return null;
+            }
+            do {
+                element = elements.get(offset);
+            } while (element == null);
+        }
+        elements.lazySet(offset, null);
+        consumerIndex.lazySet(index + 1);
+        return element;
+    }
+
+    // By the consumer, without taking them; an element whose producer has not stored it yet is skipped
+    void forEach(Consumer<? super E> action) {
+        long end = producerIndex.get();
+        for (long index = consumerIndex.get(); index < end; index++) {
+            E element = elements.get((int) index & mask);
+            if (element != null) {
+                action.accept(element);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return consumerIndex.get() == producerIndex.get();
+    }
+
+    int size() {
+        long consumed = consumerIndex.get();
+        return (int) (producerIndex.get() - consumed);
+    }
+}
@@ -0,0 +1,310 @@
+package xnioredis;
+
+import xnioredis.RedisClientConnection.CommandEncoderDecoder;
+import xnioredis.decoder.ArrayBuilderFactory;
+import xnioredis.decoder.BulkStringBuilders;
+import xnioredis.decoder.ByteView;
+import xnioredis.decoder.Replies;
+import xnioredis.decoder.parser.ReplyParser;
+
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Channels and patterns subscribed to on a dedicated connection, which subscribes to them again when it reconnects.
+// Listeners are called on the IO thread of the connection, so they must not block. Payloads are views of the pooled
+// read buffers that are released after the call; a listener that keeps one retains it
+public final class Subscriber implements AutoCloseable {
+    private static final int OTHER = 0;
+    private static final int MESSAGE = 1;
+    private static final int PMESSAGE = 2;
+    private final ConcurrentMap<String, Subscription> channels = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Subscription> patterns = new ConcurrentHashMap<>();
+    private final PooledConnection connection;
+    private final Consumer<Subscriber> closeListener;
+
+    Subscriber(Function<RedisClientConnection.Subscriber, PooledConnection> connector, Charset charset,
+            Consumer<Subscriber> closeListener) {
+        this.closeListener = closeListener;
+        this.connection = connector.apply(new Frames(charset));
+    }
+
+    public void subscribe(CharSequence channel, MessageListener listener) {
+        subscribe(channels, "SUBSCRIBE", channel, new Subscription(listener, null));
+    }
+
+    // For high rate channels: the messages of a channel that come in one read are handed over together
+    public void subscribe(CharSequence channel, BatchListener listener) {
+        subscribe(channels, "SUBSCRIBE", channel, new Subscription(null, listener));
+    }
+
+    public void psubscribe(CharSequence pattern, MessageListener listener) {
+        subscribe(patterns, "PSUBSCRIBE", pattern, new Subscription(listener, null));
+    }
+
+    public void psubscribe(CharSequence pattern, BatchListener listener) {
+        subscribe(patterns, "PSUBSCRIBE", pattern, new Subscription(null, listener));
+    }
+
+    public void unsubscribe(CharSequence channel) {
+        channels.remove(channel.toString());
+        send("UNSUBSCRIBE", channel);
+    }
+
+    public void punsubscribe(CharSequence pattern) {
+        patterns.remove(pattern.toString());
+        send("PUNSUBSCRIBE", pattern);
+    }
+
+    private void subscribe(ConcurrentMap<String, Subscription> subscriptions, String command, CharSequence name,
+            Subscription subscription) {
+        subscriptions.put(name.toString(), subscription);
+        send(command, name);
+    }
+
+    private void send(CharSequence... args) {
+        // Nothing waits for the replies, so the command leaves the in flight count as soon as it is queued
+        if (connection.acquire(Long.MAX_VALUE) && connection.add(RedisClientConnection.setup(error -> {
+        }, args))) {
+            connection.done();
+        }
+    }
+
+    @Override
+    public void close() {
+        closeListener.accept(this);
+        connection.close();
+    }
+
+    public interface MessageListener {
+        void message(String channel, ByteView payload);
+    }
+
+    public interface BatchListener {
+        // The list is reused once the call returns
+        void messages(List<Message> messages);
+    }
+
+    public static final class Message {
+        private final String channel;
+        private final ByteView payload;
+
+        private Message(String channel, ByteView payload) {
+            this.channel = channel;
+            this.payload = payload;
+        }
+
+        public String channel() {
+            return channel;
+        }
+
+        public ByteView payload() {
+            return payload;
+        }
+    }
+
+    private static final class Subscription {
+        @Nullable private final MessageListener listener;
+        @Nullable private final BatchListener batchListener;
+        private final List<Message> batch;
+
+        private Subscription(@Nullable MessageListener listener, @Nullable BatchListener batchListener) {
+            this.listener = listener;
+            this.batchListener = batchListener;
+            this.batch = batchListener == null ? null : new ArrayList<>();
+        }
+    }
+
+    // Decodes every frame of the connection into itself, as they are only touched by the IO thread
+    private final class Frames implements RedisClientConnection.Subscriber, ArrayBuilderFactory<ByteView, Frames>,
+            ArrayBuilderFactory.Builder<ByteView, Frames> {
+        private final ReplyParser<Frames> parser = Replies.arrayReply(this, BulkStringBuilders.byteView());
+        private final List<Subscription> batched = new ArrayList<>();
+        private final Name name;
+        private final Name channel;
+        private int element;
+        private int kind;
+        private String subscribed;
+        private String channelName;
+        private ByteView payload;
+
+        private Frames(Charset charset) {
+            this.name = new Name(charset);
+            this.channel = new Name(charset);
+        }
+
+        @Override
+        public ReplyParser<?> parser() {
+            return parser;
+        }
+
+        @Override
+        public Collection<CommandEncoderDecoder> resubscribe() {
+            List<CommandEncoderDecoder> commands = new ArrayList<>(2);
+            resubscribe(commands, "SUBSCRIBE", channels);
+            resubscribe(commands, "PSUBSCRIBE", patterns);
+            return commands;
+        }
+
+        private void resubscribe(List<CommandEncoderDecoder> commands, String command,
+                ConcurrentMap<String, Subscription> subscriptions) {
+            List<CharSequence> args = new ArrayList<>();
+            args.add(command);
+            args.addAll(subscriptions.keySet());
+            if (args.size() > 1) {
+                commands.add(RedisClientConnection.setup(error -> {
+                }, args.toArray(new CharSequence[args.size()])));
+            }
+        }
+
+        @Override
+        public Builder<ByteView, Frames> create(int length) {
+            element = 0;
+            kind = OTHER;
+            subscribed = null;
+            channelName = null;
+            payload = null;
+            return this;
+        }
+
+        @Override
+        public void add(@Nullable ByteView view) {
+            if (view == null) {
+                element++;
+                return;
+            }
+            switch (element++) {
+                case 0:
+                    kind = kind(view);
+                    break;
+                case 1:
+                    if (kind != OTHER) {
+                        subscribed = name.decode(view);
+                    }
+                    break;
+                case 2:
+                    if (kind == MESSAGE) {
+                        channelName = subscribed;
+                        payload = view;
+                        return;
+                    } else if (kind == PMESSAGE) {
+                        channelName = channel.decode(view);
+                    }
+                    break;
+                case 3:
+                    if (kind == PMESSAGE) {
+                        payload = view;
+                        return;
+                    }
+            }
+            view.release();
+        }
+
+        @Override
+        public Frames build() {
+            return this;
+        }
+
+        @Override
+        public void discard() {
+            if (payload != null) {
+                payload.release();
+                payload = null;
+            }
+        }
+
+        @Override
+        public void received(@Nullable Object frame, @Nullable String error) {
+            if (payload == null) {
+                return;
+            }
+            ByteView message = payload;
+            payload = null;
+            Subscription subscription = (kind == MESSAGE ? channels : patterns).get(subscribed);
+            if (subscription == null) {
+                message.release();
+            } else if (subscription.listener != null) {
+                try {
+                    subscription.listener.message(channelName, message);
+                } catch (Throwable e) {
+                    uncaught(e);
+                } finally {
+                    message.release();
+                }
+            } else {
+                if (subscription.batch.isEmpty()) {
+                    batched.add(subscription);
+                }
+                subscription.batch.add(new Message(channelName, message));
+            }
+        }
+
+        @Override
+        public void readDone() {
+            if (batched.isEmpty()) {
+                return;
+            }
+            for (Subscription subscription : batched) {
+                try {
+                    subscription.batchListener.messages(subscription.batch);
+                } catch (Throwable e) {
+                    uncaught(e);
+                } finally {
+                    for (Message message : subscription.batch) {
+                        message.payload.release();
+                    }
+                    subscription.batch.clear();
+                }
+            }
+            batched.clear();
+        }
+
+        private int kind(ByteView view) {
+            if (view.length() == 7 && view.get(0) == 'm') {
+                return MESSAGE;
+            } else if (view.length() == 8 && view.get(0) == 'p' && view.get(1) == 'm') {
+                return PMESSAGE;
+            }
+            return OTHER;
+        }
+
+        // A failing listener must not stop the messages of the others
+        private void uncaught(Throwable e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    // The last decoded name, as most messages are on the same few channels
+    private static final class Name {
+        private final Charset charset;
+        private byte[] bytes = new byte[0];
+        private String string = "";
+
+        private Name(Charset charset) {
+            this.charset = charset;
+        }
+
+        private String decode(ByteView view) {
+            int length = view.length();
+            if (length == bytes.length) {
+                int i = 0;
+                while (i < length && view.get(i) == bytes[i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return string;
+                }
+            }
+            bytes = view.toByteArray();
+            string = new String(bytes, charset);
+            return string;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package xnioredis;
+
+import org.xnio.XnioIoThread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+// Only touched by its IO thread
+class TimeoutWheel {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SIZE = 512;
+    private final XnioIoThread ioThread;
+    private final Key[] buckets = new Key[WHEEL_SIZE];
+    private final Runnable tickTask = this::tick;
+    // Polled on every tick until they return false, for requests that wait in queues rather than in the wheel
+    private final List<BooleanSupplier> watchers = new ArrayList<>();
+    private long currentTick;
+    private int size = 0;
+    private boolean ticking = false;
+
+    TimeoutWheel(XnioIoThread ioThread) {
+        this.ioThread = ioThread;
+    }
+
+    Key schedule(long delayNanos, Runnable task) {
+        long now = System.nanoTime();
+        start(now);
+        long deadlineTick = Math.max(Math.floorDiv(now + delayNanos + TICK_NANOS - 1, TICK_NANOS), currentTick + 1);
+        Key key = new Key(deadlineTick, task);
+        int bucket = bucket(deadlineTick);
+        key.bucket = bucket;
+        key.next = buckets[bucket];
+        if (key.next != null) {
+            key.next.prev = key;
+        }
+        buckets[bucket] = key;
+        size++;
+        return key;
+    }
+
+    void watch(BooleanSupplier watcher) {
+        start(System.nanoTime());
+        watchers.add(watcher);
+    }
+
+    private void start(long now) {
+        if (!ticking) {
+            currentTick = Math.floorDiv(now, TICK_NANOS);
+            ioThread.executeAfter(tickTask, TICK_NANOS, TimeUnit.NANOSECONDS);
+            ticking = true;
+        }
+    }
+
+    private void tick() {
+        long nowTick = Math.floorDiv(System.nanoTime(), TICK_NANOS);
+        for (long tick = Math.max(currentTick + 1, nowTick - WHEEL_SIZE + 1); tick <= nowTick; tick++) {
+            Key key = buckets[bucket(tick)];
+            while (key != null) {
+                Key next = key.next;
+                if (key.deadlineTick <= nowTick) {
+                    key.cancel();
+                    key.task.run();
+                }
+                key = next;
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        // By index, as a watcher may add another
+        for (int i = 0; i < watchers.size(); ) {
+            if (watchers.get(i).getAsBoolean()) {
+                i++;
+            } else {
+                watchers.remove(i);
+            }
+        }
+        if (size > 0 || !watchers.isEmpty()) {
+            ioThread.executeAfter(tickTask, TICK_NANOS, TimeUnit.NANOSECONDS);
+        } else {
+            ticking = false;
+        }
+    }
+
+    private static int bucket(long tick) {
+        return (int) tick & (WHEEL_SIZE - 1);
+    }
+
+    class Key {
+        private final long deadlineTick;
+        private final Runnable task;
+        private int bucket = -1;
+        private Key prev;
+        private Key next;
+
+        private Key(long deadlineTick, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+
+        // Off the IO thread the key is left in place, and its task runs for a request that is already done
+        void cancel() {
+            if (bucket < 0 || Thread.currentThread() != ioThread) {
+                return;
+            }
+            if (prev != null) {
+                prev.next = next;
+            } else {
+                buckets[bucket] = next;
+            }
+            if (next != null) {
+                next.prev = prev;
+            }
+            prev = null;
+            next = null;
+            bucket = -1;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package xnioredis;
+
+import xnioredis.decoder.ArrayBuilderFactory;
+import xnioredis.decoder.ArrayBuilders;
+import xnioredis.decoder.ByteView;
+import xnioredis.decoder.Replies;
+import xnioredis.decoder.parser.ErrorParser;
+import xnioredis.decoder.parser.LongParser;
+import xnioredis.decoder.parser.Parser;
+import xnioredis.decoder.parser.ReplyParser;
+import xnioredis.decoder.parser.ReplySequence;
+import xnioredis.decoder.parser.StringParser;
+import xnioredis.encoder.RespSink;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// MULTI, the commands and EXEC written together, so the transaction costs one round trip. The result has the replies
+// of the commands decoded by their own parsers. It fails with the EXECABORT error and the first command the server
+// refused to queue, with WatchConflictException when a watched key changed, and with the first error of a command
+// that failed when it ran, although the others ran
+public class Transaction<T> implements Request<List<T>> {
+    private static final byte[] MULTI = "*1\r\n$5\r\nMULTI\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXEC = "*1\r\n$4\r\nEXEC\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final List<? extends Request<? extends T>> requests;
+
+    public Transaction(List<? extends Request<? extends T>> requests) {
+        this.requests = requests;
+    }
+
+    @Override
+    public CommandWriter writer() {
+        return new CommandWriter() {
+            private final List<CommandWriter> writers =
+                    requests.stream().map(Request::writer).collect(Collectors.toList());
+
+            @Override
+            public void write(RespSink sink) throws IOException {
+                sink.writeRaw(MULTI);
+                for (CommandWriter writer : writers) {
+                    writer.write(sink);
+                }
+                sink.writeRaw(EXEC);
+            }
+        };
+    }
+
+    @Override
+    public void release() {
+        for (Request<? extends T> request : requests) {
+            request.release();
+        }
+    }
+
+    @Override
+    public ReplyParser<List<T>> parser() {
+        Exec exec = new Exec();
+        List<ReplyParser<?>> parsers = new ArrayList<>(requests.size() + 2);
+        parsers.add(Replies.simpleStringReply());
+        for (int i = 0; i < requests.size(); i++) {
+            parsers.add(exec.queued(Replies.simpleStringReply(), i));
+        }
+        parsers.add(exec);
+        // Only the reply of EXEC makes the result
+        return new ReplySequence<>(parsers, length -> new ArrayBuilderFactory.Builder<Object, List<T>>() {
+            private Object last;
+
+            @Override
+            public void add(@Nullable Object element) {
+                last = element;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public List<T> build() {
+                return (List<T>) last;
+            }
+
+            @Override
+            public void discard() {
+                ByteView.releaseAll(last);
+            }
+        });
+    }
+
+    // The reply of EXEC: an array of the replies of the commands, an error when one of them could not be queued or
+    // null when a watched key changed. One per parse, as it keeps the first error of the QUEUED acknowledgements
+    private class Exec implements ReplyParser<List<T>> {
+        private String queueError;
+
+        // Does not fail, so that the error of EXEC can tell which command was refused
+        private ReplyParser<Object> queued(ReplyParser<?> parser, int index) {
+            return new ReplyParser<Object>() {
+                @Override
+                public <U> U parseReply(ByteBuffer buffer, Function<? super Object, U> resultHandler,
+                        PartialReplyHandler<? super Object, U> partialReplyHandler, FailureHandler<U> failureHandler,
+                        CharsetDecoder charsetDecoder) {
+                    return parser.parseReply(buffer, resultHandler::apply,
+                            partial -> partialReplyHandler.partialReply(queued(partial, index)),
+                            new FailureHandler<U>() {
+                                @Override
+                                public U failure(CharSequence message) {
+                                    if (queueError == null) {
+                                        queueError = "command " + index + ": " + message;
+                                    }
+                                    return resultHandler.apply(null);
+                                }
+                            }, charsetDecoder);
+                }
+            };
+        }
+
+        @Override
+        public <U> U parseReply(ByteBuffer buffer, Function<? super List<T>, U> resultHandler,
+                PartialReplyHandler<? super List<T>, U> partialReplyHandler, FailureHandler<U> failureHandler,
+                CharsetDecoder charsetDecoder) {
+            if (!buffer.hasRemaining()) {
+                return partialReplyHandler.partialReply(this);
+            }
+            byte b = buffer.get();
+            switch (b) {
+                case '*':
+                    return replies(LongParser.LONG_PARSER, buffer, resultHandler, partialReplyHandler, failureHandler,
+                            charsetDecoder);
+                case '_':
+                    // RESP3 null
+                    return replies(StringParser.INSTANCE.map(s -> -1L), buffer, resultHandler, partialReplyHandler,
+                            failureHandler, charsetDecoder);
+                case '-':
+                    return error(new ErrorParser<>(), buffer, resultHandler, partialReplyHandler, failureHandler,
+                            charsetDecoder);
+                default:
+                    throw new IllegalStateException("'*' is expected but '" + (char) b + "' was found");
+            }
+        }
+
+        private <U> U error(ReplyParser<? extends List<T>> errorParser, ByteBuffer buffer,
+                Function<? super List<T>, U> resultHandler, PartialReplyHandler<? super List<T>, U> partialReplyHandler,
+                FailureHandler<U> failureHandler, CharsetDecoder charsetDecoder) {
+            return errorParser.parseReply(buffer, resultHandler, partial -> partialReplyHandler.partialReply(
+                    new ReplyParser<List<T>>() {
+                        @Override
+                        public <V> V parseReply(ByteBuffer buffer, Function<? super List<T>, V> resultHandler,
+                                PartialReplyHandler<? super List<T>, V> partialReplyHandler,
+                                FailureHandler<V> failureHandler, CharsetDecoder charsetDecoder) {
+                            return error(partial, buffer, resultHandler, partialReplyHandler, failureHandler,
+                                    charsetDecoder);
+                        }
+                    }), new FailureHandler<U>() {
+                @Override
+                public U failure(CharSequence message) {
+                    return failureHandler.failure(queueError == null ? message : message + " " + queueError);
+                }
+            }, charsetDecoder);
+        }
+
+        private <U> U replies(Parser<? extends Long> lengthParser, ByteBuffer buffer,
+                Function<? super List<T>, U> resultHandler, PartialReplyHandler<? super List<T>, U> partialReplyHandler,
+                FailureHandler<U> failureHandler, CharsetDecoder charsetDecoder) {
+            return lengthParser.parse(buffer, length -> {
+                if (length < 0) {
+                    return failureHandler.failure(new WatchConflictException());
+                }
+                List<ReplyParser<? extends T>> parsers =
+                        requests.stream().map(Request::parser).collect(Collectors.toList());
+                return new ReplySequence<T, List<T>>(parsers, ArrayBuilders.collection(ArrayList::new))
+                        .parseReply(buffer, resultHandler, partialReplyHandler, failureHandler, charsetDecoder);
+            }, partial -> partialReplyHandler.partialReply(new ReplyParser<List<T>>() {
+                @Override
+                public <V> V parseReply(ByteBuffer buffer, Function<? super List<T>, V> resultHandler,
+                        PartialReplyHandler<? super List<T>, V> partialReplyHandler, FailureHandler<V> failureHandler,
+                        CharsetDecoder charsetDecoder) {
+                    return replies(partial, buffer, resultHandler, partialReplyHandler, failureHandler,
+                            charsetDecoder);
+                }
+            }), charsetDecoder);
+        }
+    }
+}
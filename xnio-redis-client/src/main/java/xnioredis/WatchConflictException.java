@@ -0,0 +1,8 @@
+package xnioredis;
+
+// EXEC did not run the transaction, as a key watched by the connection changed
+public class WatchConflictException extends RedisException {
+    public WatchConflictException() {
+        super("A watched key changed");
+    }
+}
@@ -0,0 +1,65 @@
+package xnioredis;
+
+public class WriteStatistics {
+    // Written by the IO thread only
+    private volatile long flushes;
+    private volatile long writeCalls;
+    private volatile long bytesWritten;
+    private volatile long commandsWritten;
+
+    WriteStatistics() {
+    }
+
+    void flushed(int commands) {
+        flushes++;
+        commandsWritten += commands;
+    }
+
+    void written(long bytes) {
+        writeCalls++;
+        bytesWritten += bytes;
+    }
+
+    static WriteStatistics sum(Iterable<WriteStatistics> statistics) {
+        WriteStatistics total = new WriteStatistics();
+        for (WriteStatistics s : statistics) {
+            total.flushes += s.flushes;
+            total.writeCalls += s.writeCalls;
+            total.bytesWritten += s.bytesWritten;
+            total.commandsWritten += s.commandsWritten;
+        }
+        return total;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getCommandsWritten() {
+        return commandsWritten;
+    }
+
+    public double getAverageFlushBytes() {
+        long f = flushes;
+        return f == 0 ? 0 : (double) bytesWritten / f;
+    }
+
+    public double getAverageFlushCommands() {
+        long f = flushes;
+        return f == 0 ? 0 : (double) commandsWritten / f;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteStatistics{flushes=" + flushes + ", writeCalls=" + writeCalls + ", bytesWritten=" +
+                bytesWritten + ", commandsWritten=" + commandsWritten + '}';
+    }
+}
@@ -1,93 +1,633 @@
 package xnioredis;
 
 import org.xnio.IoFuture;
-import org.xnio.IoUtils;
+import org.xnio.OptionMap;
 import org.xnio.Pool;
 import org.xnio.StreamConnection;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
 import xnioredis.RedisClientConnection.CommandEncoderDecoder;
+import xnioredis.decoder.ByteView;
+import xnioredis.decoder.RespValue;
+import xnioredis.decoder.parser.FrameDecoder;
 import xnioredis.decoder.parser.ReplyParser;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public abstract class XnioRedisClient<F, SF extends F> implements AutoCloseable {
-    private final BlockingQueue<CommandEncoderDecoder> writerQueue = new LinkedBlockingQueue<>();
-    private final IoFuture<StreamConnection> streamConnectionFuture;
-    private volatile RedisClientConnection redisClientConnection;
-    private volatile IOException failure;
+    private static final int DEFAULT_SUBMISSION_QUEUE_SIZE = 1 << 16;
+    private static final int DEFAULT_OVERFLOW_TIMEOUT = 1000;
+    private static final int DEFAULT_CLUSTER_REFRESH_INTERVAL = 30000;
+    private static final int MAX_REDIRECTS = 5;
+    // Lets the requests already sent to a node that lost all its slots get their replies or redirects
+    private static final long NODE_CLOSE_DELAY = TimeUnit.SECONDS.toNanos(10);
+    // Empty in cluster mode
+    private final PooledConnection[] connections;
+    @Nullable private final ClusterSlots<PooledConnection> cluster;
+    @Nullable private final XnioIoThread clusterThread;
+    private final long clusterRefreshIntervalNanos;
+    // Opens the dedicated connection of a subscriber; null when the client was given its only connection
+    @Nullable private final Function<RedisClientConnection.Subscriber, PooledConnection> subscriberConnector;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<XnioIoThread, TimeoutWheel> timeoutWheels = new ConcurrentHashMap<>();
+    private final long defaultTimeoutNanos;
+    private final Charset charset;
+    @Nullable private final NearCache nearCache;
+    @Nullable private final KeyCache keyCache;
+    private final RedisClientConnection.Listener connectionListener = new RedisClientConnection.Listener() {
+        @Override
+        public void pushed(RespValue push) {
+            if (nearCache != null && push.size() == 2 && "invalidate".equals(push.get(0).asString())) {
+                RespValue keys = push.get(1);
+                if (keys.isNull()) {
+                    // FLUSHALL and FLUSHDB
+                    nearCache.clear();
+                } else {
+                    for (int i = 0; i < keys.size(); i++) {
+                        nearCache.invalidate(keys.get(i).asString());
+                    }
+                }
+            }
+            pushListener.accept(push);
+        }
+
+        @Override
+        public void trackingFailed(String error) {
+            if (nearCache != null) {
+                nearCache.disable();
+            }
+        }
+    };
+    private volatile Consumer<? super RespValue> pushListener = push -> {
+    };
     private volatile boolean closed = false;
 
     protected XnioRedisClient(IoFuture<StreamConnection> streamConnectionFuture, Pool<ByteBuffer> bufferPool,
             Charset charset) {
-        this.streamConnectionFuture = streamConnectionFuture;
-        this.streamConnectionFuture.addNotifier(new IoFuture.HandlingNotifier<StreamConnection, Void>() {
-            @Override
-            public void handleFailed(IOException exception, Void v) {
-                failure = exception;
-                CommandEncoderDecoder commandEncoderDecoder;
-                while ((commandEncoderDecoder = writerQueue.poll()) != null) {
-                    commandEncoderDecoder.fail(failure);
-                }
+        this.connections = new PooledConnection[]{new PooledConnection(() -> streamConnectionFuture, null, bufferPool,
+                charset, DEFAULT_SUBMISSION_QUEUE_SIZE, FlushPolicy.DEFAULT, this::timeoutWheel,
+                InFlightLimiter.unlimited(), ReconnectPolicy.NONE, false, false, connectionListener, null,
+                this::connectionLost)};
+        this.subscriberConnector = null;
+        this.defaultTimeoutNanos = 0;
+        this.charset = charset;
+        this.nearCache = null;
+        this.keyCache = null;
+        this.cluster = null;
+        this.clusterThread = null;
+        this.clusterRefreshIntervalNanos = 0;
+    }
+
+    protected XnioRedisClient(XnioWorker worker, SocketAddress address, Pool<ByteBuffer> bufferPool, Charset charset,
+            OptionMap options) {
+        this(worker, address, null, bufferPool, charset, options);
+    }
+
+    // A Redis Cluster found from any of its nodes. Every request with a routing key goes to the master of its slot;
+    // the others go to any master
+    protected XnioRedisClient(XnioWorker worker, Collection<InetSocketAddress> seeds, Pool<ByteBuffer> bufferPool,
+            Charset charset, OptionMap options) {
+        this(worker, null, seeds, bufferPool, charset, options);
+    }
+
+    private XnioRedisClient(XnioWorker worker, @Nullable SocketAddress address,
+            @Nullable Collection<InetSocketAddress> seeds, Pool<ByteBuffer> bufferPool, Charset charset,
+            OptionMap options) {
+        int connectionCount = options.get(RedisOptions.CONNECTIONS, 1);
+        if (connectionCount < 1) {
+            throw new IllegalArgumentException("At least one connection is required: " + connectionCount);
+        }
+        int queueSize = options.get(RedisOptions.SUBMISSION_QUEUE_SIZE, DEFAULT_SUBMISSION_QUEUE_SIZE);
+        FlushPolicy flushPolicy = FlushPolicy.from(options);
+        ReconnectPolicy reconnectPolicy = ReconnectPolicy.from(options);
+        long nearCacheMaxBytes = options.get(RedisOptions.NEAR_CACHE_MAX_BYTES, 0L);
+        this.nearCache = nearCacheMaxBytes > 0 ? new NearCache(nearCacheMaxBytes) : null;
+        // The near cache is kept coherent with RESP3 invalidation pushes
+        int protocol = options.get(RedisOptions.PROTOCOL, nearCache != null ? 3 : 2);
+        if (protocol != 2 && protocol != 3) {
+            throw new IllegalArgumentException("Unsupported protocol: " + protocol);
+        } else if (protocol != 3 && nearCache != null) {
+            throw new IllegalArgumentException("The near cache needs RESP3");
+        }
+        this.defaultTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.get(RedisOptions.REQUEST_TIMEOUT, 0));
+        this.charset = charset;
+        int keyCacheSize = options.get(RedisOptions.KEY_CACHE_SIZE, 0);
+        this.keyCache = keyCacheSize > 0 ? new KeyCache(charset, keyCacheSize) : null;
+        int maxInFlight = options.get(RedisOptions.MAX_IN_FLIGHT, Integer.MAX_VALUE);
+        boolean adaptive = options.get(RedisOptions.ADAPTIVE_IN_FLIGHT, false);
+        OverflowPolicy overflowPolicy = options.get(RedisOptions.OVERFLOW_POLICY, OverflowPolicy.REJECT);
+        long overflowTimeoutNanos =
+                TimeUnit.MILLISECONDS.toNanos(options.get(RedisOptions.OVERFLOW_TIMEOUT, DEFAULT_OVERFLOW_TIMEOUT));
+        // Pub/Sub messages reach every node of a cluster, so subscribers use the first seed
+        SocketAddress subscriberAddress = seeds != null ? seeds.iterator().next() : address;
+        this.subscriberConnector = subscriber -> {
+            XnioIoThread ioThread = worker.getIoThread();
+            return new PooledConnection(() -> ioThread.openStreamConnection(subscriberAddress, null, OptionMap.EMPTY),
+                    ioThread, bufferPool, charset, queueSize, flushPolicy, this::timeoutWheel,
+                    InFlightLimiter.unlimited(), reconnectPolicy, false, false, connectionListener, subscriber, () -> {
+            });
+        };
+        if (seeds != null) {
+            // One pipelined connection per node, spread over the IO threads
+            this.connections = new PooledConnection[0];
+            this.cluster = new ClusterSlots<>(seeds, nodeAddress -> {
+                XnioIoThread ioThread = worker.getIoThread();
+                return new PooledConnection(() -> ioThread.openStreamConnection(nodeAddress, null, OptionMap.EMPTY),
+                        ioThread, bufferPool, charset, queueSize, flushPolicy, this::timeoutWheel,
+                        new InFlightLimiter(maxInFlight, adaptive, overflowPolicy, overflowTimeoutNanos),
+                        reconnectPolicy, protocol == 3, nearCache != null, connectionListener, null,
+                        this::connectionLost);
+            }, charset);
+            this.clusterThread = worker.getIoThread();
+            this.clusterRefreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                    options.get(RedisOptions.CLUSTER_REFRESH_INTERVAL, DEFAULT_CLUSTER_REFRESH_INTERVAL));
+            refreshCluster();
+            scheduleClusterRefresh();
+        } else {
+            this.cluster = null;
+            this.clusterThread = null;
+            this.clusterRefreshIntervalNanos = 0;
+            XnioIoThread[] ioThreads = distinctIoThreads(worker, connectionCount);
+            this.connections = new PooledConnection[connectionCount];
+            for (int i = 0; i < connectionCount; i++) {
+                XnioIoThread ioThread = ioThreads[i % ioThreads.length];
+                connections[i] = new PooledConnection(
+                        () -> ioThread.openStreamConnection(address, null, OptionMap.EMPTY), ioThread, bufferPool,
+                        charset, queueSize, flushPolicy, this::timeoutWheel,
+                        new InFlightLimiter(maxInFlight, adaptive, overflowPolicy, overflowTimeoutNanos),
+                        reconnectPolicy, protocol == 3, nearCache != null, connectionListener, null,
+                        this::connectionLost);
             }
+        }
+    }
 
-            @Override
-            public void handleDone(StreamConnection data, Void v) {
-                redisClientConnection = new RedisClientConnection(data, bufferPool, charset, writerQueue);
-                if (!writerQueue.isEmpty()) {
-                    redisClientConnection.commandAdded();
-                }
+    private static XnioIoThread[] distinctIoThreads(XnioWorker worker, int connectionCount) {
+        int threadCount = Math.min(connectionCount, worker.getIoThreadCount());
+        Set<XnioIoThread> ioThreads = new LinkedHashSet<>();
+        for (int attempt = 0; ioThreads.size() < threadCount && attempt < threadCount * 16; attempt++) {
+            ioThreads.add(worker.getIoThread());
+        }
+        return ioThreads.toArray(new XnioIoThread[ioThreads.size()]);
+    }
+
+    // Receives the RESP3 push frames of all connections on their IO threads, so it must not block
+    public void setPushListener(Consumer<? super RespValue> pushListener) {
+        this.pushListener = pushListener;
+    }
+
+    // Invalidations may have been missed
+    private void connectionLost() {
+        if (nearCache != null) {
+            nearCache.clear();
+        }
+    }
+
+    // Opens a dedicated connection for subscriptions, closed with the client
+    public Subscriber subscriber() {
+        if (subscriberConnector == null) {
+            throw new IllegalStateException(
+                    "Subscribers need a client that opens its own connections, not one given a connection future");
+        }
+        Subscriber subscriber = new Subscriber(subscriberConnector, charset, subscribers::remove);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    @Nullable
+    public NearCache nearCache() {
+        return nearCache;
+    }
+
+    // A key to pass instead of the name to commands that are sent over and over, through the key cache if enabled
+    public Key key(CharSequence name) {
+        return keyCache != null ? keyCache.key(name) : new Key(name, charset);
+    }
+
+    @Nullable
+    public KeyCache keyCache() {
+        return keyCache;
+    }
+
+    // Loads the slot map in the background from any node, while requests keep following the current one and its
+    // redirects. Also called by MOVED redirects, at most once a second
+    private void refreshCluster() {
+        if (closed || !cluster.refreshDue()) {
+            return;
+        }
+        PooledConnection node = cluster.anyNode();
+        String host = cluster.host(node);
+        send_(node, ClusterSlots.CLUSTER_SLOTS, defaultTimeoutNanos, reply -> {
+            for (PooledConnection unused : cluster.update((RespValue) reply, host)) {
+                clusterThread.executeAfter(unused::close, NODE_CLOSE_DELAY, TimeUnit.NANOSECONDS);
             }
-        }, null);
+        });
+    }
+
+    private void scheduleClusterRefresh() {
+        if (!closed && clusterRefreshIntervalNanos > 0) {
+            clusterThread.executeAfter(() -> {
+                refreshCluster();
+                scheduleClusterRefresh();
+            }, clusterRefreshIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private TimeoutWheel timeoutWheel(XnioIoThread ioThread) {
+        return timeoutWheels.computeIfAbsent(ioThread, TimeoutWheel::new);
     }
 
     public <T> F send_(final Request<T> request) {
+        return send_(leastLoaded(), request, defaultTimeoutNanos);
+    }
+
+    public <T> F send_(final Request<T> request, long timeout, TimeUnit unit) {
+        return send_(leastLoaded(), request, unit.toNanos(timeout));
+    }
+
+    public <T> F send_(Object routingKey, final Request<T> request) {
+        return send_(keyed(routingKey), request, defaultTimeoutNanos);
+    }
+
+    public <T> F send_(Object routingKey, final Request<T> request, long timeout, TimeUnit unit) {
+        return send_(keyed(routingKey), request, unit.toNanos(timeout));
+    }
+
+    // A command sent with its arguments: in a cluster it goes to the node of the first argument, which is the key of
+    // most commands. Commands without a key go to any node
+    public <T> F sendArg_(@Nullable Object arg1, final Request<T> request) {
+        Object routingKey = cluster != null ? ClusterSlots.routingKey(arg1) : null;
+        return send_(routingKey != null ? cluster.node(routingKey) : leastLoaded(), request, defaultTimeoutNanos);
+    }
+
+    // Served from the near cache when it is enabled. read tells apart the reads of the same key, such as the command and
+    // its other arguments, and needs equals and hashCode
+    public <T> F sendCached_(CharSequence key, Object read, final Request<T> request) {
+        if (nearCache == null) {
+            return sendArg_(key, request);
+        }
+        String k = key.toString();
+        NearCache.Entry entry = nearCache.get(k, read);
+        if (entry != null) {
+            request.release();
+            SF future = createFuture();
+            complete(future, entry.value);
+            return future;
+        }
+        // A cluster node only tracks the keys of its own slots
+        PooledConnection connection = cluster != null ? cluster.node(k) : leastLoaded();
+        return send_(connection, request, defaultTimeoutNanos, value -> nearCache.put(k, read, value));
+    }
+
+    private <T> F send_(PooledConnection connection, final Request<T> request, long timeoutNanos) {
+        return send_(connection, request, timeoutNanos, (Consumer<Object>) null);
+    }
+
+    private <T> F send_(PooledConnection connection, final Request<T> request, long timeoutNanos,
+            @Nullable Consumer<Object> replyListener) {
         if (closed) {
+            request.release();
             return createCancelledFuture();
         }
+        IOException failure = connection.failure();
         if (failure != null) {
+            request.release();
             return createFailedFuture(failure);
         }
-        final SF future = createFuture();
-        writerQueue.add(new CommandEncoderDecoder() {
-            private ReplyParser<? extends T> parser = request.parser();
+        SF future = createFuture();
+        submit(connection, request, false, timeoutNanos, System.nanoTime(), replyListener, future, 0);
+        return future;
+    }
+
+    // Every request gets its own future, but the batch is queued contiguously on one connection and wakes its IO thread
+    // once. Requests beyond the in-flight window are rejected, and the whole batch when the submission queue cannot
+    // take it at once
+    public List<F> sendAll_(List<? extends Request<?>> requests) {
+        return sendAll_(leastLoaded(), requests, defaultTimeoutNanos);
+    }
+
+    public List<F> sendAll_(Object routingKey, List<? extends Request<?>> requests) {
+        return sendAll_(keyed(routingKey), requests, defaultTimeoutNanos);
+    }
+
+    private List<F> sendAll_(PooledConnection connection, List<? extends Request<?>> requests, long timeoutNanos) {
+        int size = requests.size();
+        List<F> futures = new ArrayList<>(size);
+        IOException failure = connection.failure();
+        if (closed || failure != null) {
+            for (int i = 0; i < size; i++) {
+                requests.get(i).release();
+                futures.add(closed ? createCancelledFuture() : createFailedFuture(failure));
+            }
+            return futures;
+        }
+        long submitted = System.nanoTime();
+        int acquired = connection.acquire(size, timeoutNanos > 0 ? timeoutNanos : Long.MAX_VALUE);
+        List<CommandEncoderDecoder> commands = new ArrayList<>(acquired);
+        for (int i = 0; i < size; i++) {
+            SF future = createFuture();
+            futures.add(future);
+            if (i < acquired) {
+                commands.add(command(connection, requests.get(i), false, timeoutNanos, submitted, null, future, 0));
+            } else {
+                requests.get(i).release();
+                completeExceptionally(future, new RejectedExecutionException("Too many requests in flight"));
+            }
+        }
+        if (!commands.isEmpty() && !connection.addAll(commands)) {
+            for (CommandEncoderDecoder command : commands) {
+                command.reject(new RejectedExecutionException("Submission queue is full"));
+            }
+        }
+        return futures;
+    }
+
+    // Redirected requests are submitted again with the same future and deadline, from the IO thread of the
+    // redirecting node; asking sends ASKING first
+    private <T> void submit(PooledConnection connection, Request<T> request, boolean asking, long timeoutNanos,
+            long submitted, @Nullable Consumer<Object> replyListener, SF future, int redirects) {
+        long deadline = submitted + timeoutNanos;
+        if (!connection.acquire(timeoutNanos > 0 ? deadline - System.nanoTime() : Long.MAX_VALUE)) {
+            request.release();
+            completeExceptionally(future, new RejectedExecutionException("Too many requests in flight"));
+            return;
+        }
+        CommandEncoderDecoder command = command(connection, request, asking, timeoutNanos, submitted, replyListener,
+                future, redirects);
+        if (!connection.add(command)) {
+            command.reject(new RejectedExecutionException("Submission queue is full"));
+        }
+    }
+
+    private <T> CommandEncoderDecoder command(PooledConnection connection, Request<T> request, boolean asking,
+            long timeoutNanos, long submitted, @Nullable Consumer<Object> replyListener, SF future, int redirects) {
+        long deadline = submitted + timeoutNanos;
+        long sentAt = redirects == 0 ? submitted : System.nanoTime();
+        Request<T> sent = asking ? new CommandPair<>(ClusterSlots.ASKING, request, (ok, value) -> value) : request;
+        return new CommandEncoderDecoder() {
+            private ReplyParser<? extends T> parser = sent.parser();
+            private volatile TimeoutWheel.Key timeoutKey;
+            private volatile boolean done = false;
+            // By the submission that completes the future; a redirected or reloaded one hands the request over
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            // On the IO thread of the connection
+            private void arm(TimeoutWheel timeoutWheel) {
+                if (!done) {
+                    timeoutKey = timeoutWheel.schedule(deadline - System.nanoTime(), this::timeOut);
+                }
+            }
 
             @Override
             public CommandWriter writer() {
-                return request.writer();
+                return sent.writer();
+            }
+
+            @Override
+            public boolean prepareWrite(TimeoutWheel timeoutWheel) {
+                if (released.get()) {
+                    // Expired while it was queued
+                    done();
+                    return false;
+                } else if (timeoutNanos > 0) {
+                    // Expired while queued, so it is not sent at all
+                    if (deadline - System.nanoTime() <= 0) {
+                        done();
+                        timeOut();
+                        return false;
+                    } else if (timeoutKey == null) {
+                        arm(timeoutWheel);
+                    }
+                }
+                return true;
+            }
+
+            // Until it is written, its deadline is checked by the wheel's sweeps of the queue it waits in
+            @Override
+            public void expire(long nowNanos) {
+                if (timeoutNanos > 0 && deadline - nowNanos <= 0) {
+                    timeOut();
+                }
+            }
+
+            // The reply of a timed out request is still parsed when it arrives, completing an already failed future
+            private void timeOut() {
+                completeExceptionally(future, new TimeoutException(
+                        "No reply within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms"));
+                release();
             }
 
             @Override
-            public boolean parse(ByteBuffer buffer, CharsetDecoder charsetDecoder) throws IOException {
+            public boolean parse(ByteBuffer buffer, FrameDecoder frameDecoder) throws IOException {
+                if (FrameDecoder.supports(parser)) {
+                    if (!frameDecoder.decode(buffer, parser)) {
+                        return false;
+                    }
+                    String error = frameDecoder.error();
+                    Object value = frameDecoder.value();
+                    RuntimeException thrown = frameDecoder.thrown();
+                    replied();
+                    if (thrown != null) {
+                        ByteView.releaseAll(value);
+                        completeExceptionally(future, thrown);
+                        release();
+                    } else if (error != null) {
+                        failed(error);
+                    } else {
+                        succeeded(value);
+                    }
+                    return true;
+                }
                 return parser.parseReply(buffer, value -> {
-                    complete(future, value);
+                    replied();
+                    succeeded(value);
                     return true;
                 }, partial -> {
                     parser = partial;
                     return false;
-                }, message -> {
-                    completeExceptionally(future, new RedisException(message.toString()));
-                    return true;
-                }, charsetDecoder);
+                }, new ReplyParser.FailureHandler<Boolean>() {
+                    @Override
+                    public Boolean failure(CharSequence message) {
+                        replied();
+                        failed(message.toString());
+                        return true;
+                    }
+
+                    @Override
+                    public Boolean failure(Throwable cause) {
+                        replied();
+                        completeExceptionally(future, cause);
+                        release();
+                        return true;
+                    }
+                }, frameDecoder.charsetDecoder());
+            }
+
+            private void failed(String error) {
+                if (request instanceof Script.Evaluation && error.startsWith("NOSCRIPT")) {
+                    // Loaded on the connection that missed it; the requests pipelined behind do not wait
+                    submit(connection, ((Script.Evaluation<T>) request).loaded(), asking, timeoutNanos, submitted,
+                            replyListener, future, redirects + 1);
+                    return;
+                }
+                String[] redirect = cluster != null && redirects < MAX_REDIRECTS ? ClusterSlots.redirect(error) : null;
+                if (redirect == null) {
+                    completeExceptionally(future, new RedisException(error));
+                    release();
+                    return;
+                }
+                PooledConnection target = cluster.node(redirect[2], Integer.parseInt(redirect[3]));
+                boolean moved = redirect[0].equals("MOVED");
+                if (moved) {
+                    cluster.moved(Integer.parseInt(redirect[1]), target);
+                    refreshCluster();
+                }
+                submit(target, request, !moved, timeoutNanos, submitted, replyListener, future, redirects + 1);
+            }
+
+            private void succeeded(Object value) {
+                if (replyListener != null) {
+                    replyListener.accept(value);
+                }
+                if (!complete(future, value)) {
+                    // Timed out or cancelled, so the views of a late reply go back to the pool
+                    ByteView.releaseAll(value);
+                }
+                release();
+            }
+
+            @Override
+            public boolean retry() {
+                if (done || !sent.isIdempotent()) {
+                    return false;
+                }
+                // Keeps its timeout, which counts from the submission
+                parser = sent.parser();
+                return true;
             }
 
             @Override
             public void fail(Throwable e) {
+                done();
                 completeExceptionally(future, e);
+                release();
             }
 
             @Override
             public void cancel() {
+                done();
                 XnioRedisClient.this.cancel(future);
+                release();
             }
-        });
-        if (redisClientConnection != null) {
-            redisClientConnection.commandAdded();
+
+            @Override
+            public void reject(Throwable e) {
+                done = true;
+                disarm();
+                completeExceptionally(future, e);
+                release();
+            }
+
+            private void release() {
+                if (released.compareAndSet(false, true)) {
+                    request.release();
+                }
+            }
+
+            private void replied() {
+                if (!done) {
+                    connection.replied(sentAt);
+                }
+                done();
+            }
+
+            private void done() {
+                if (!done) {
+                    done = true;
+                    disarm();
+                    connection.done();
+                }
+            }
+
+            // Queued commands are failed and cancelled on other threads, where the key is left to run for nothing
+            private void disarm() {
+                TimeoutWheel.Key key = timeoutKey;
+                if (key != null) {
+                    timeoutKey = null;
+                    key.cancel();
+                }
+            }
+        };
+    }
+
+    private PooledConnection keyed(Object routingKey) {
+        if (cluster != null) {
+            return cluster.node(routingKey);
         }
-        return future;
+        int hash = hash(routingKey);
+        return connections[(hash & Integer.MAX_VALUE) % connections.length];
+    }
+
+    private PooledConnection leastLoaded() {
+        if (cluster != null) {
+            return cluster.anyNode();
+        }
+        int count = connections.length;
+        if (count == 1) {
+            return connections[0];
+        }
+        int start = ThreadLocalRandom.current().nextInt(count);
+        PooledConnection best = connections[start];
+        int bestPending = Integer.MAX_VALUE;
+        for (int i = 0; i < count && bestPending > 0; i++) {
+            PooledConnection connection = connections[(start + i) % count];
+            int pending = connection.pending();
+            if (pending < bestPending && connection.failure() == null) {
+                best = connection;
+                bestPending = pending;
+            }
+        }
+        return best;
+    }
+
+    private static int hash(Object routingKey) {
+        int h;
+        if (routingKey instanceof CharSequence) {
+            CharSequence s = (CharSequence) routingKey;
+            h = 0;
+            for (int i = 0; i < s.length(); i++) {
+                h = 31 * h + s.charAt(i);
+            }
+        } else if (routingKey instanceof byte[]) {
+            h = Arrays.hashCode((byte[]) routingKey);
+        } else {
+            h = routingKey.hashCode();
+        }
+        return h ^ (h >>> 16);
+    }
+
+    public WriteStatistics writeStatistics() {
+        Collection<PooledConnection> nodes = cluster != null ? cluster.nodes() : Arrays.asList(connections);
+        return WriteStatistics.sum(nodes.stream().map(PooledConnection::writeStatistics)::iterator);
     }
 
     protected abstract F createCancelledFuture();
@@ -96,7 +636,8 @@ public abstract class XnioRedisClient<F, SF extends F> implements AutoCloseable
 
     protected abstract SF createFuture();
 
-    protected abstract <T> void complete(SF future, T value);
+    // Returns false when the future was already done and did not take the value
+    protected abstract <T> boolean complete(SF future, T value);
 
     protected abstract void completeExceptionally(SF future, Throwable exception);
 
@@ -105,9 +646,11 @@ public abstract class XnioRedisClient<F, SF extends F> implements AutoCloseable
     @Override
     public void close() {
         closed = true;
-        IoUtils.safeClose(streamConnectionFuture);
-        if (redisClientConnection != null) {
-            redisClientConnection.close();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        for (PooledConnection connection : cluster != null ? cluster.nodes() : Arrays.asList(connections)) {
+            connection.close();
         }
     }
 }
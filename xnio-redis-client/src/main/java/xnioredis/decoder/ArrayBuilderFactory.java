@@ -9,5 +9,9 @@ public interface ArrayBuilderFactory<E, T> {
         void add(@Nullable E element);
 
         T build();
+
+        // The reply was aborted, so the elements added so far are not built into anything
+        default void discard() {
+        }
     }
 }
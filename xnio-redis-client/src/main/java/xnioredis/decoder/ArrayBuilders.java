@@ -2,6 +2,7 @@ package xnioredis.decoder;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.function.Consumer;
 import java.util.function.IntFunction;
 
 public class ArrayBuilders {
@@ -20,6 +21,11 @@ public class ArrayBuilders {
                 public E[] build() {
                     return array;
                 }
+
+                @Override
+                public void discard() {
+                    ByteView.releaseAll(array);
+                }
             };
         };
     }
@@ -37,7 +43,91 @@ public class ArrayBuilders {
                 public C build() {
                     return collection;
                 }
+
+                @Override
+                public void discard() {
+                    ByteView.releaseAll(collection);
+                }
             };
         };
     }
+
+    // Elements are passed to the consumer on the IO thread as they are decoded; the reply is the element count
+    public static <E> ArrayBuilderFactory<E, Integer> forEach(Consumer<? super E> consumer) {
+        return length -> new ArrayBuilderFactory.Builder<E, Integer>() {
+            // The consumer runs on the IO thread; once it throws, the rest of the elements are only read
+            private RuntimeException thrown;
+
+            @Override
+            public void add(@Nullable E element) {
+                if (thrown != null) {
+                    ByteView.releaseAll(element);
+                    return;
+                }
+                try {
+                    consumer.accept(element);
+                } catch (RuntimeException e) {
+                    thrown = e;
+                }
+            }
+
+            @Override
+            public Integer build() {
+                if (thrown != null) {
+                    throw thrown;
+                }
+                return length;
+            }
+        };
+    }
+
+    public static LongArrayBuilderFactory<long[]> longArray() {
+        return length -> new LongArrayBuilderFactory.Builder<long[]>() {
+            private final long[] array = new long[length];
+            private int i = 0;
+
+            @Override
+            public void add(long element) {
+                array[i++] = element;
+            }
+
+            @Override
+            public long[] build() {
+                return array;
+            }
+        };
+    }
+
+    public static LongArrayBuilderFactory<int[]> intArray() {
+        return length -> new LongArrayBuilderFactory.Builder<int[]>() {
+            private final int[] array = new int[length];
+            private int i = 0;
+
+            @Override
+            public void add(long element) {
+                array[i++] = Math.toIntExact(element);
+            }
+
+            @Override
+            public int[] build() {
+                return array;
+            }
+        };
+    }
+
+    public static LongArrayBuilderFactory<LongHashSet> longSet() {
+        return length -> new LongArrayBuilderFactory.Builder<LongHashSet>() {
+            private final LongHashSet set = new LongHashSet(length);
+
+            @Override
+            public void add(long element) {
+                set.add(element);
+            }
+
+            @Override
+            public LongHashSet build() {
+                return set;
+            }
+        };
+    }
 }
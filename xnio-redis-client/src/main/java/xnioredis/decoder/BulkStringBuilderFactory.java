@@ -8,26 +8,46 @@ import java.util.function.Function;
 public interface BulkStringBuilderFactory<T> {
     Builder<T> create(int length, CharsetDecoder charsetDecoder);
 
+    // Decodes a whole bulk string that is in the buffer, consuming it; factories override this to skip the builder
+    default T decode(ByteBuffer buffer, CharsetDecoder charsetDecoder) {
+        Builder<T> builder = create(buffer.remaining(), charsetDecoder);
+        builder.appendLast(buffer);
+        return builder.build();
+    }
+
     default <R> BulkStringBuilderFactory<R> map(Function<? super T, ? extends R> mapper) {
         Objects.requireNonNull(mapper);
-        return (length, charsetDecoder) -> {
-            Builder<T> builder = create(length, charsetDecoder);
-            return new Builder<R>() {
-                @Override
-                public void append(ByteBuffer buffer) {
-                    builder.append(buffer);
-                }
-
-                @Override
-                public void appendLast(ByteBuffer buffer) {
-                    builder.appendLast(buffer);
-                }
-
-                @Override
-                public R build() {
-                    return mapper.apply(builder.build());
-                }
-            };
+        return new BulkStringBuilderFactory<R>() {
+            @Override
+            public Builder<R> create(int length, CharsetDecoder charsetDecoder) {
+                Builder<T> builder = BulkStringBuilderFactory.this.create(length, charsetDecoder);
+                return new Builder<R>() {
+                    @Override
+                    public void append(ByteBuffer buffer) {
+                        builder.append(buffer);
+                    }
+
+                    @Override
+                    public void appendLast(ByteBuffer buffer) {
+                        builder.appendLast(buffer);
+                    }
+
+                    @Override
+                    public R build() {
+                        return mapper.apply(builder.build());
+                    }
+
+                    @Override
+                    public void discard() {
+                        builder.discard();
+                    }
+                };
+            }
+
+            @Override
+            public R decode(ByteBuffer buffer, CharsetDecoder charsetDecoder) {
+                return mapper.apply(BulkStringBuilderFactory.this.decode(buffer, charsetDecoder));
+            }
         };
     }
 
@@ -37,5 +57,9 @@ public interface BulkStringBuilderFactory<T> {
         void appendLast(ByteBuffer buffer);
 
         T build();
+
+        // The reply was aborted before the bulk string was complete
+        default void discard() {
+        }
     }
 }
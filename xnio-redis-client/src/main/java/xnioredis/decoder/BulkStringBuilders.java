@@ -1,79 +1,362 @@
 package xnioredis.decoder;
 
 import com.google.common.base.Throwables;
+import xnioredis.internal.ReadBuffer;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class BulkStringBuilders {
-    private static final BulkStringBuilderFactory<byte[]> BYTE_ARRAY_BUILDER_FACTORY = (length, charsetDecoder) -> {
-        byte[] bytes = new byte[length];
-        return new BulkStringBuilderFactory.Builder<byte[]>() {
-            int offset = 0;
+    private static final BulkStringBuilderFactory<byte[]> BYTE_ARRAY_BUILDER_FACTORY =
+            new BulkStringBuilderFactory<byte[]>() {
+                @Override
+                public Builder<byte[]> create(int length, CharsetDecoder charsetDecoder) {
+                    byte[] bytes = new byte[length];
+                    return new Builder<byte[]>() {
+                        int offset = 0;
 
-            @Override
-            public void append(ByteBuffer buffer) {
-                int len = buffer.remaining();
-                buffer.get(bytes, offset, len);
-                offset += len;
-            }
+                        @Override
+                        public void append(ByteBuffer buffer) {
+                            int len = buffer.remaining();
+                            buffer.get(bytes, offset, len);
+                            offset += len;
+                        }
 
-            @Override
-            public void appendLast(ByteBuffer buffer) {
-                append(buffer);
-            }
+                        @Override
+                        public void appendLast(ByteBuffer buffer) {
+                            append(buffer);
+                        }
 
-            @Override
-            public byte[] build() {
-                return bytes;
-            }
-        };
-    };
-    private static final BulkStringBuilderFactory<CharSequence> CHAR_SEQUENCE_BUILDER_FACTORY = charSequence();
-    private static final BulkStringBuilderFactory<Integer> INTEGER_BUILDER_FACTORY =
-            CHAR_SEQUENCE_BUILDER_FACTORY.map(Object::toString).map(Integer::valueOf);
-    private static final BulkStringBuilderFactory<Long> LONG_BUILDER_FACTORY =
-            CHAR_SEQUENCE_BUILDER_FACTORY.map(Object::toString).map(Long::valueOf);
+                        @Override
+                        public byte[] build() {
+                            return bytes;
+                        }
+                    };
+                }
+
+                @Override
+                public byte[] decode(ByteBuffer buffer, CharsetDecoder charsetDecoder) {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    return bytes;
+                }
+            };
+    private static final BulkStringBuilderFactory<ByteView> BYTE_VIEW_BUILDER_FACTORY = (length, charsetDecoder) ->
+            new BulkStringBuilderFactory.Builder<ByteView>() {
+                private final List<ByteBuffer> segments = new ArrayList<>(1);
+                private final List<ReadBuffer> owners = new ArrayList<>(1);
 
-    public static BulkStringBuilderFactory<CharSequence> charSequence() {
-        return (length, charsetDecoder) -> {
-            CharBuffer charBuffer = CharBuffer.allocate((int) (length * charsetDecoder.maxCharsPerByte()));
-            return new BulkStringBuilderFactory.Builder<CharSequence>() {
                 @Override
                 public void append(ByteBuffer buffer) {
-                    checkResult(charsetDecoder.decode(buffer, charBuffer, false));
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+                    ReadBuffer owner = ReadBuffer.current();
+                    ByteBuffer segment;
+                    if (owner != null && owner.backs(buffer)) {
+                        owner.retain();
+                        segment = buffer.slice().asReadOnlyBuffer();
+                    } else {
+                        // Not a view of a pooled read buffer, so there is nothing to share
+                        owner = null;
+                        segment = ByteBuffer.allocate(buffer.remaining());
+                        segment.put(buffer.duplicate()).flip();
+                        segment = segment.asReadOnlyBuffer();
+                    }
+                    buffer.position(buffer.limit());
+                    segments.add(segment);
+                    owners.add(owner);
                 }
 
                 @Override
                 public void appendLast(ByteBuffer buffer) {
-                    checkResult(charsetDecoder.decode(buffer, charBuffer, true));
-                    checkResult(charsetDecoder.flush(charBuffer));
-                    charsetDecoder.reset();
+                    append(buffer);
                 }
 
                 @Override
-                public CharSequence build() {
-                    charBuffer.flip();
-                    return charBuffer;
+                public ByteView build() {
+                    return new ByteView(segments.toArray(new ByteBuffer[segments.size()]),
+                            owners.toArray(new ReadBuffer[owners.size()]), length);
                 }
 
-                private void checkResult(CoderResult coderResult) {
-                    if (!coderResult.isUnderflow()) {
-                        try {
-                            coderResult.throwException();
-                        } catch (CharacterCodingException e) {
-                            throw Throwables.propagate(e);
+                @Override
+                public void discard() {
+                    for (ReadBuffer owner : owners) {
+                        if (owner != null) {
+                            owner.release();
                         }
                     }
                 }
             };
+    private static final BulkStringBuilderFactory<CharSequence> DECODED_BUILDER_FACTORY = decoded();
+    private static final BulkStringBuilderFactory<String> STRING_BUILDER_FACTORY =
+            new BulkStringBuilderFactory<String>() {
+                @Override
+                public Builder<String> create(int length, CharsetDecoder charsetDecoder) {
+                    Charset charset = charsetDecoder.charset();
+                    if (!direct(charset)) {
+                        return DECODED_BUILDER_FACTORY.map(CharSequence::toString).create(length, charsetDecoder);
+                    }
+                    // The payload is gathered first, so characters split between reads need no care
+                    return BYTE_ARRAY_BUILDER_FACTORY.map(bytes -> decodeString(bytes, 0, bytes.length, charset))
+                            .create(length, charsetDecoder);
+                }
+
+                @Override
+                public String decode(ByteBuffer buffer, CharsetDecoder charsetDecoder) {
+                    Charset charset = charsetDecoder.charset();
+                    if (!direct(charset)) {
+                        return DECODED_BUILDER_FACTORY.decode(buffer, charsetDecoder).toString();
+                    } else if (buffer.hasArray()) {
+                        String string = decodeString(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                                buffer.remaining(), charset);
+                        buffer.position(buffer.limit());
+                        return string;
+                    }
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    return decodeString(bytes, 0, bytes.length, charset);
+                }
+            };
+    // Only ever produces strings
+    @SuppressWarnings("unchecked")
+    private static final BulkStringBuilderFactory<CharSequence> CHAR_SEQUENCE_BUILDER_FACTORY =
+            (BulkStringBuilderFactory<CharSequence>) (BulkStringBuilderFactory<?>) STRING_BUILDER_FACTORY;
+    // Numbers are parsed from their ASCII bytes, without a charset decoder or an intermediate string
+    private static final BulkStringBuilderFactory<Long> LONG_BUILDER_FACTORY = new BulkStringBuilderFactory<Long>() {
+        @Override
+        public Builder<Long> create(int length, CharsetDecoder charsetDecoder) {
+            return new Builder<Long>() {
+                private long number = 0;
+                private boolean negative = false;
+                private boolean digits = false;
+
+                @Override
+                public void append(ByteBuffer buffer) {
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        if (b == '-' && !digits && !negative) {
+                            negative = true;
+                        } else {
+                            number = digit(number, b, negative);
+                            digits = true;
+                        }
+                    }
+                }
+
+                @Override
+                public void appendLast(ByteBuffer buffer) {
+                    append(buffer);
+                }
+
+                @Override
+                public Long build() {
+                    if (!digits) {
+                        throw new NumberFormatException("Not an integer: no digits");
+                    }
+                    return negative ? number : -number;
+                }
+            };
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer, CharsetDecoder charsetDecoder) {
+            return parseLong(buffer);
+        }
+    };
+    private static final BulkStringBuilderFactory<Integer> INTEGER_BUILDER_FACTORY =
+            LONG_BUILDER_FACTORY.map(BulkStringBuilders::toInt);
+    private static final BulkStringBuilderFactory<Double> DOUBLE_BUILDER_FACTORY =
+            new BulkStringBuilderFactory<Double>() {
+                @Override
+                public Builder<Double> create(int length, CharsetDecoder charsetDecoder) {
+                    return BYTE_ARRAY_BUILDER_FACTORY.map(bytes -> parseDouble(ByteBuffer.wrap(bytes)))
+                            .create(length, charsetDecoder);
+                }
+
+                @Override
+                public Double decode(ByteBuffer buffer, CharsetDecoder charsetDecoder) {
+                    return parseDouble(buffer);
+                }
+            };
+    // Exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+            1e19, 1e20, 1e21, 1e22};
+
+    // UTF-8, US-ASCII and ISO-8859-1 are decoded without the CharsetDecoder: ASCII and Latin-1 bytes are copied into a
+    // compact string as they are, and other UTF-8 goes through decodeUtf8. Other charsets are decoded by the decoder
+    public static BulkStringBuilderFactory<CharSequence> charSequence() {
+        return CHAR_SEQUENCE_BUILDER_FACTORY;
+    }
+
+    private static BulkStringBuilderFactory<CharSequence> decoded() {
+        return new BulkStringBuilderFactory<CharSequence>() {
+            @Override
+            public Builder<CharSequence> create(int length, CharsetDecoder charsetDecoder) {
+                CharBuffer charBuffer = CharBuffer.allocate((int) (length * charsetDecoder.maxCharsPerByte()));
+                return new Builder<CharSequence>() {
+                    // Bytes of a character that is split between appends
+                    private ByteBuffer carry;
+
+                    @Override
+                    public void append(ByteBuffer buffer) {
+                        decodeCarried(buffer);
+                        checkResult(charsetDecoder.decode(buffer, charBuffer, false));
+                        if (buffer.hasRemaining()) {
+                            if (carry == null) {
+                                carry = ByteBuffer.allocate(16);
+                            }
+                            carry.put(buffer);
+                        }
+                    }
+
+                    @Override
+                    public void appendLast(ByteBuffer buffer) {
+                        decodeCarried(buffer);
+                        if (carry != null && carry.position() > 0) {
+                            // An incomplete character at the end is malformed
+                            carry.flip();
+                            decodeLast(carry, charBuffer, charsetDecoder);
+                        } else {
+                            decodeLast(buffer, charBuffer, charsetDecoder);
+                        }
+                    }
+
+                    private void decodeCarried(ByteBuffer buffer) {
+                        while (carry != null && carry.position() > 0 && buffer.hasRemaining()) {
+                            carry.put(buffer.get()).flip();
+                            checkResult(charsetDecoder.decode(carry, charBuffer, false));
+                            carry.compact();
+                        }
+                    }
+
+                    @Override
+                    public CharSequence build() {
+                        charBuffer.flip();
+                        return charBuffer;
+                    }
+                };
+            }
+
+            @Override
+            public CharSequence decode(ByteBuffer buffer, CharsetDecoder charsetDecoder) {
+                CharBuffer charBuffer =
+                        CharBuffer.allocate((int) (buffer.remaining() * charsetDecoder.maxCharsPerByte()));
+                decodeLast(buffer, charBuffer, charsetDecoder);
+                charBuffer.flip();
+                return charBuffer;
+            }
         };
     }
 
+    private static void decodeLast(ByteBuffer buffer, CharBuffer charBuffer, CharsetDecoder charsetDecoder) {
+        checkResult(charsetDecoder.decode(buffer, charBuffer, true));
+        checkResult(charsetDecoder.flush(charBuffer));
+        charsetDecoder.reset();
+    }
+
+    private static void checkResult(CoderResult coderResult) {
+        if (!coderResult.isUnderflow()) {
+            try {
+                coderResult.throwException();
+            } catch (CharacterCodingException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    private static boolean direct(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII) ||
+                charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String decodeString(byte[] bytes, int offset, int length, Charset charset) {
+        if (charset.equals(StandardCharsets.ISO_8859_1) || ascii(bytes, offset, length)) {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        } else if (charset.equals(StandardCharsets.UTF_8)) {
+            return decodeUtf8(bytes, offset, length);
+        }
+        // The decoder reports the bytes that are not ASCII
+        return DECODED_BUILDER_FACTORY.decode(ByteBuffer.wrap(bytes, offset, length), charset.newDecoder()).toString();
+    }
+
+    // Without an early exit, so the loop stays simple enough to be unrolled
+    private static boolean ascii(byte[] bytes, int offset, int length) {
+        int bits = 0;
+        for (int i = offset; i < offset + length; i++) {
+            bits |= bytes[i];
+        }
+        return bits >= 0;
+    }
+
+    // Malformed input is reported like the decoder does, rather than replaced
+    static String decodeUtf8(byte[] bytes, int offset, int length) {
+        // Never more chars than bytes
+        char[] chars = new char[length];
+        int end = offset + length;
+        int i = offset;
+        int j = 0;
+        while (i < end) {
+            int b0 = bytes[i];
+            if (b0 >= 0) {
+                chars[j++] = (char) b0;
+                i++;
+            } else if ((b0 & 0xe0) == 0xc0 && (b0 & 0x1e) != 0) {
+                if (i + 1 >= end || !continuation(bytes[i + 1])) {
+                    throw malformed(i);
+                }
+                chars[j++] = (char) (((b0 & 0x1f) << 6) | (bytes[i + 1] & 0x3f));
+                i += 2;
+            } else if ((b0 & 0xf0) == 0xe0) {
+                if (i + 2 >= end || !continuation(bytes[i + 1]) || !continuation(bytes[i + 2])) {
+                    throw malformed(i);
+                }
+                int c = ((b0 & 0x0f) << 12) | ((bytes[i + 1] & 0x3f) << 6) | (bytes[i + 2] & 0x3f);
+                // Overlong encodings and surrogates
+                if (c < 0x800 || Character.isSurrogate((char) c)) {
+                    throw malformed(i);
+                }
+                chars[j++] = (char) c;
+                i += 3;
+            } else if ((b0 & 0xf8) == 0xf0) {
+                if (i + 3 >= end || !continuation(bytes[i + 1]) || !continuation(bytes[i + 2]) ||
+                        !continuation(bytes[i + 3])) {
+                    throw malformed(i);
+                }
+                int c = ((b0 & 0x07) << 18) | ((bytes[i + 1] & 0x3f) << 12) | ((bytes[i + 2] & 0x3f) << 6) |
+                        (bytes[i + 3] & 0x3f);
+                if (c < 0x10000 || c > Character.MAX_CODE_POINT) {
+                    throw malformed(i);
+                }
+                chars[j++] = Character.highSurrogate(c);
+                chars[j++] = Character.lowSurrogate(c);
+                i += 4;
+            } else {
+                throw malformed(i);
+            }
+        }
+        return new String(chars, 0, j);
+    }
+
+    private static boolean continuation(byte b) {
+        return (b & 0xc0) == 0x80;
+    }
+
+    private static RuntimeException malformed(int index) {
+        return Throwables.propagate(new MalformedInputException(index));
+    }
+
     public static BulkStringBuilderFactory<String> string() {
-        return charSequence().map(Object::toString);
+        return STRING_BUILDER_FACTORY;
     }
 
     public static BulkStringBuilderFactory<Integer> integer() {
@@ -84,7 +367,111 @@ public class BulkStringBuilders {
         return LONG_BUILDER_FACTORY;
     }
 
+    // Scores and RESP3 doubles, including the infinities Redis writes as inf and -inf
+    public static BulkStringBuilderFactory<Double> _double() {
+        return DOUBLE_BUILDER_FACTORY;
+    }
+
+    // Consumes the buffer. Accumulated negatively, like Long.parseLong, so that Long.MIN_VALUE fits
+    static long parseLong(ByteBuffer buffer) {
+        int i = buffer.position();
+        int end = buffer.limit();
+        boolean negative = i < end && buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Not an integer: no digits");
+        }
+        long number = 0;
+        for (; i < end; i++) {
+            number = digit(number, buffer.get(i), negative);
+        }
+        buffer.position(end);
+        return negative ? number : -number;
+    }
+
+    private static long digit(long number, byte b, boolean negative) {
+        int digit = b - '0';
+        if (digit < 0 || digit > 9) {
+            throw new NumberFormatException("Not an integer: unexpected '" + (char) b + "'");
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        if (number < limit / 10 || number * 10 < limit + digit) {
+            throw new NumberFormatException("Integer overflows a long");
+        }
+        return number * 10 - digit;
+    }
+
+    private static int toInt(long number) {
+        if ((int) number != number) {
+            throw new NumberFormatException("Integer overflows an int: " + number);
+        }
+        return (int) number;
+    }
+
+    // Consumes the buffer. A plain decimal of at most 15 significant digits and 22 decimals is exactly a long divided
+    // by an exact power of ten, so one division rounds it correctly; exponents, longer decimals, inf and nan are
+    // parsed from a string
+    static double parseDouble(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        int i = start;
+        boolean negative = i < end && buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        int decimals = 0;
+        boolean point = false;
+        boolean simple = i < end;
+        for (; i < end && simple; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {
+                    significant++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (point) {
+                    decimals++;
+                }
+                simple = significant <= 15 && decimals < POWERS_OF_TEN.length;
+            } else {
+                simple = b == '.' && !point && i > start + (negative ? 1 : 0) && i < end - 1;
+                point = true;
+            }
+        }
+        if (simple) {
+            buffer.position(end);
+            double value = mantissa / POWERS_OF_TEN[decimals];
+            return negative ? -value : value;
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(bytes);
+        return parseDouble(new String(bytes, StandardCharsets.ISO_8859_1));
+    }
+
+    static double parseDouble(String s) {
+        switch (s) {
+            case "inf":
+            case "+inf":
+                return Double.POSITIVE_INFINITY;
+            case "-inf":
+                return Double.NEGATIVE_INFINITY;
+            case "nan":
+                return Double.NaN;
+            default:
+                return Double.parseDouble(s);
+        }
+    }
+
     public static BulkStringBuilderFactory<byte[]> byteArray() {
         return BYTE_ARRAY_BUILDER_FACTORY;
     }
+
+    // The view shares the connection's pooled read buffers until it is released
+    public static BulkStringBuilderFactory<ByteView> byteView() {
+        return BYTE_VIEW_BUILDER_FACTORY;
+    }
 }
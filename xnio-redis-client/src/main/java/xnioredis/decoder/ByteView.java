@@ -0,0 +1,131 @@
+package xnioredis.decoder;
+
+import xnioredis.internal.ReadBuffer;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ByteView implements AutoCloseable {
+    private final ByteBuffer[] segments;
+    private final ReadBuffer[] owners;
+    private final int length;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    ByteView(ByteBuffer[] segments, ReadBuffer[] owners, int length) {
+        this.segments = segments;
+        this.owners = owners;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isComposite() {
+        return segments.length > 1;
+    }
+
+    public byte get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index + " is out of [0, " + length + ")");
+        }
+        for (ByteBuffer segment : segments) {
+            if (index < segment.remaining()) {
+                return segment.get(segment.position() + index);
+            }
+            index -= segment.remaining();
+        }
+        throw new AssertionError();
+    }
+
+    public ByteBuffer[] buffers() {
+        ByteBuffer[] buffers = new ByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            buffers[i] = segments[i].duplicate();
+        }
+        return buffers;
+    }
+
+    public void copyTo(ByteBuffer target) {
+        for (ByteBuffer segment : segments) {
+            target.put(segment.duplicate());
+        }
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (ByteBuffer segment : segments) {
+            int len = segment.remaining();
+            segment.duplicate().get(bytes, offset, len);
+            offset += len;
+        }
+        return bytes;
+    }
+
+    public String toString(Charset charset) {
+        if (segments.length == 1) {
+            return charset.decode(segments[0].duplicate()).toString();
+        }
+        return new String(toByteArray(), charset);
+    }
+
+    public ByteView retain() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count == 0) {
+                throw new IllegalStateException("View is already released");
+            }
+        } while (!refCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            for (ReadBuffer owner : owners) {
+                if (owner != null) {
+                    owner.release();
+                }
+            }
+        } else if (count < 0) {
+            throw new IllegalStateException("View is already released");
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    // Releases the views of a value that nobody will receive: a view itself, or those in the arrays, collections and
+    // maps of a reply. Other AutoCloseable values are closed
+    public static void releaseAll(@Nullable Object value) {
+        if (value instanceof ByteView) {
+            ((ByteView) value).release();
+        } else if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                releaseAll(element);
+            }
+        } else if (value instanceof Iterable) {
+            for (Object element : (Iterable<?>) value) {
+                releaseAll(element);
+            }
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                releaseAll(entry.getKey());
+                releaseAll(entry.getValue());
+            }
+        } else if (value instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) value).close();
+            } catch (Exception e) {
+                // Nobody is left to report it to
+            }
+        }
+    }
+}
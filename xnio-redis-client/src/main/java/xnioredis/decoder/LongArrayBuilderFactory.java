@@ -0,0 +1,22 @@
+package xnioredis.decoder;
+
+import javax.annotation.Nullable;
+
+// Arrays of integers built without boxing: the frame decoder parses every element from its digits and hands it over
+// as a long. Boxed elements only come from the continuation parsers and from RESP3 scalars
+public interface LongArrayBuilderFactory<T> extends ArrayBuilderFactory<Long, T> {
+    @Override
+    Builder<T> create(int length);
+
+    interface Builder<T> extends ArrayBuilderFactory.Builder<Long, T> {
+        void add(long element);
+
+        @Override
+        default void add(@Nullable Long element) {
+            if (element == null) {
+                throw new IllegalStateException("Nil element in an array of integers");
+            }
+            add(element.longValue());
+        }
+    }
+}
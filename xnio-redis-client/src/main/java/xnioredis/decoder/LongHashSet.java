@@ -0,0 +1,109 @@
+package xnioredis.decoder;
+
+import java.util.function.LongConsumer;
+
+// An open addressing set of longs, for the large sets of ids that would otherwise be boxed one by one. Zero marks
+// the free slots, so it is kept aside
+public final class LongHashSet {
+    private static final int MIN_CAPACITY = 8;
+    private long[] slots;
+    private int mask;
+    private int size = 0;
+    private boolean zero = false;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+        this.slots = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public boolean add(long value) {
+        if (value == 0) {
+            if (zero) {
+                return false;
+            }
+            zero = true;
+            size++;
+            return true;
+        }
+        int i = index(value);
+        long slot;
+        while ((slot = slots[i]) != 0) {
+            if (slot == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        // At most half full, so probe sequences stay short
+        if (++size * 2 > slots.length) {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == 0) {
+            return zero;
+        }
+        int i = index(value);
+        long slot;
+        while ((slot = slots[i]) != 0) {
+            if (slot == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(LongConsumer consumer) {
+        if (zero) {
+            consumer.accept(0);
+        }
+        for (long slot : slots) {
+            if (slot != 0) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    public long[] toArray() {
+        long[] values = new long[size];
+        int j = zero ? 1 : 0;
+        for (long slot : slots) {
+            if (slot != 0) {
+                values[j++] = slot;
+            }
+        }
+        return values;
+    }
+
+    private int index(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        mask = slots.length - 1;
+        for (long value : old) {
+            if (value != 0) {
+                int i = index(value);
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+}
@@ -9,5 +9,9 @@ public interface MapBuilderFactory<K, V, T> {
         void put(@Nullable K key, @Nullable V value);
 
         T build();
+
+        // The reply was aborted, so the entries put so far are not built into anything
+        default void discard() {
+        }
     }
 }
@@ -2,6 +2,7 @@ package xnioredis.decoder;
 
 import javax.annotation.Nullable;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.function.IntFunction;
 
 public class MapBuilders {
@@ -18,7 +19,42 @@ public class MapBuilders {
                 public M build() {
                     return map;
                 }
+
+                @Override
+                public void discard() {
+                    ByteView.releaseAll(map);
+                }
             };
         };
     }
+
+    // Entries are passed to the consumer on the IO thread as they are decoded; the reply is the entry count
+    public static <K, V> MapBuilderFactory<K, V, Integer> forEach(BiConsumer<? super K, ? super V> consumer) {
+        return length -> new MapBuilderFactory.Builder<K, V, Integer>() {
+            // The consumer runs on the IO thread; once it throws, the rest of the entries are only read
+            private RuntimeException thrown;
+
+            @Override
+            public void put(@Nullable K key, @Nullable V value) {
+                if (thrown != null) {
+                    ByteView.releaseAll(key);
+                    ByteView.releaseAll(value);
+                    return;
+                }
+                try {
+                    consumer.accept(key, value);
+                } catch (RuntimeException e) {
+                    thrown = e;
+                }
+            }
+
+            @Override
+            public Integer build() {
+                if (thrown != null) {
+                    throw thrown;
+                }
+                return length;
+            }
+        };
+    }
 }
@@ -1,26 +1,27 @@
 package xnioredis.decoder;
 
-import xnioredis.decoder.parser.ArrayAsMapParser;
-import xnioredis.decoder.parser.ArrayParser;
 import xnioredis.decoder.parser.ArrayReplyParser;
-import xnioredis.decoder.parser.BulkStringParser;
 import xnioredis.decoder.parser.BulkStringReplyParser;
 import xnioredis.decoder.parser.IntegerReplyParser;
-import xnioredis.decoder.parser.LenParser;
 import xnioredis.decoder.parser.LongParser;
-import xnioredis.decoder.parser.Parser;
-import xnioredis.decoder.parser.PrefixedParser;
-import xnioredis.decoder.parser.SeqParser;
 import xnioredis.decoder.parser.SimpleStringReplyParser;
 import xnioredis.decoder.parser.StringParser;
+import xnioredis.decoder.parser.TransferReplyParser;
+import xnioredis.decoder.parser.ValueReplyParser;
+
+import java.nio.channels.WritableByteChannel;
 
 public class Replies {
 
     private static final IntegerReplyParser<Integer> INTEGER_REPLY_PARSER =
             new IntegerReplyParser<>(LongParser.INTEGER_PARSER);
     private static final IntegerReplyParser<Long> LONG_REPLY_PARSER = new IntegerReplyParser<>(LongParser.LONG_PARSER);
+    private static final IntegerReplyParser<Boolean> BOOLEAN_REPLY_PARSER =
+            new IntegerReplyParser<>(LongParser.BOOLEAN_PARSER);
     private static final SimpleStringReplyParser<CharSequence> SIMPLE_STRING_REPLY_PARSER =
             new SimpleStringReplyParser<>(StringParser.INSTANCE);
+    private static final ValueReplyParser VALUE_REPLY_PARSER = new ValueReplyParser();
+    private static final ArrayReplyParser<RespValue> ARRAY_VALUE_REPLY_PARSER = ArrayReplyParser.value();
 
     public static IntegerReplyParser<Integer> integerReply() {
         return INTEGER_REPLY_PARSER;
@@ -30,31 +31,44 @@ public class Replies {
         return LONG_REPLY_PARSER;
     }
 
+    // A RESP3 boolean, or a RESP2 integer that is not zero
+    public static IntegerReplyParser<Boolean> booleanReply() {
+        return BOOLEAN_REPLY_PARSER;
+    }
+
     public static SimpleStringReplyParser<CharSequence> simpleStringReply() {
         return SIMPLE_STRING_REPLY_PARSER;
     }
 
     public static <T> BulkStringReplyParser<T> bulkStringReply(BulkStringBuilderFactory<? extends T> builderFactory) {
-        return new BulkStringReplyParser<>(new LenParser<>(len -> new BulkStringParser<>(len, builderFactory)));
+        return new BulkStringReplyParser<>(builderFactory);
     }
 
-    private static <T> Parser<T> bulkStringReplyNoFail(BulkStringBuilderFactory<? extends T> builderFactory) {
-        return new PrefixedParser<>('$', new LenParser<>(len -> new BulkStringParser<>(len, builderFactory)));
+    public static BulkStringReplyParser<Long> transferReply(WritableByteChannel channel) {
+        return new TransferReplyParser(channel);
     }
 
     public static <E, T> ArrayReplyParser<T> arrayReply(ArrayBuilderFactory<E, ? extends T> arrayBuilderFactory,
             BulkStringBuilderFactory<? extends E> elementBuilderFactory) {
-        Parser<E> elementParser = bulkStringReplyNoFail(elementBuilderFactory);
-        return new ArrayReplyParser<>(
-                new LenParser<>(len -> new ArrayParser<>(len, arrayBuilderFactory, elementParser)));
+        return new ArrayReplyParser<>(arrayBuilderFactory, elementBuilderFactory);
+    }
+
+    // The elements are parsed into longs without boxing when the frame decoder decodes the reply
+    public static <T> ArrayReplyParser<T> longArrayReply(LongArrayBuilderFactory<? extends T> arrayBuilderFactory) {
+        return new ArrayReplyParser<>(arrayBuilderFactory, BulkStringBuilders._long());
     }
 
     public static <K, V, T> ArrayReplyParser<T> mapReply(MapBuilderFactory<K, V, ? extends T> arrayBuilderFactory,
             BulkStringBuilderFactory<? extends K> keyBuilderFactory,
             BulkStringBuilderFactory<? extends V> valueBuilderFactory) {
-        SeqParser<K, V> kvParser =
-                SeqParser.seq(bulkStringReplyNoFail(keyBuilderFactory), bulkStringReplyNoFail(valueBuilderFactory));
-        return new ArrayReplyParser<>(
-                new LenParser<>(len -> new ArrayAsMapParser<>(len / 2, arrayBuilderFactory, kvParser)));
+        return new ArrayReplyParser<>(arrayBuilderFactory, keyBuilderFactory, valueBuilderFactory);
+    }
+
+    public static ValueReplyParser valueReply() {
+        return VALUE_REPLY_PARSER;
+    }
+
+    public static ArrayReplyParser<RespValue> arrayValueReply() {
+        return ARRAY_VALUE_REPLY_PARSER;
     }
 }
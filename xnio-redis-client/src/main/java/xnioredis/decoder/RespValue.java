@@ -0,0 +1,304 @@
+package xnioredis.decoder;
+
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A reply of any shape kept as its raw RESP bytes. Nothing is decoded until it is asked for: elements are flyweights
+// over the same bytes and the offsets of an aggregate's elements are only found when one of them is first accessed
+public final class RespValue {
+    private final byte[] bytes;
+    private final int offset;
+    private final Charset charset;
+    private int[] elements;
+
+    public RespValue(byte[] resp, Charset charset) {
+        this(resp, 0, charset);
+    }
+
+    private RespValue(byte[] bytes, int offset, Charset charset) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.charset = charset;
+    }
+
+    public Type type() {
+        switch (bytes[offset]) {
+            case '+':
+                return Type.SIMPLE_STRING;
+            case '-':
+            case '!':
+                return Type.ERROR;
+            case ':':
+                return Type.INTEGER;
+            case '$':
+                return Type.BULK_STRING;
+            case '_':
+                return Type.NULL;
+            case ',':
+                return Type.DOUBLE;
+            case '#':
+                return Type.BOOLEAN;
+            case '(':
+                return Type.BIG_NUMBER;
+            case '=':
+                return Type.VERBATIM_STRING;
+            case '~':
+                return Type.SET;
+            case '%':
+                return Type.MAP;
+            case '>':
+                return Type.PUSH;
+            default:
+                return Type.ARRAY;
+        }
+    }
+
+    public boolean isNull() {
+        byte type = bytes[offset];
+        return type == '_' || (type == '$' || type == '*') && bytes[offset + 1] == '-';
+    }
+
+    public long asLong() {
+        switch (type()) {
+            case INTEGER:
+            case SIMPLE_STRING:
+            case BIG_NUMBER:
+                return parseLong(offset + 1, lineEnd(offset));
+            case BULK_STRING:
+                if (!isNull()) {
+                    int start = payloadStart();
+                    return parseLong(start, start + length());
+                }
+                break;
+        }
+        throw new IllegalStateException("Not a number: " + this);
+    }
+
+    public double asDouble() {
+        switch (type()) {
+            case DOUBLE:
+            case INTEGER:
+            case SIMPLE_STRING:
+            case BULK_STRING:
+                if (!isNull()) {
+                    return BulkStringBuilders.parseDouble(asString());
+                }
+                break;
+        }
+        throw new IllegalStateException("Not a number: " + this);
+    }
+
+    public boolean asBoolean() {
+        switch (type()) {
+            case BOOLEAN:
+                return bytes[offset + 1] == 't';
+            case INTEGER:
+                return asLong() != 0;
+            default:
+                throw new IllegalStateException("Not a boolean: " + this);
+        }
+    }
+
+    // Verbatim strings lose their format prefix
+    @Nullable
+    public String asString() {
+        return asString(charset);
+    }
+
+    @Nullable
+    public String asString(Charset charset) {
+        if (isNull()) {
+            return null;
+        }
+        if (isAggregate()) {
+            throw new IllegalStateException("Not a string: " + this);
+        }
+        int start = stringStart();
+        return new String(bytes, start, stringEnd() - start, charset);
+    }
+
+    @Nullable
+    public byte[] asBytes() {
+        if (isNull()) {
+            return null;
+        }
+        if (isAggregate()) {
+            throw new IllegalStateException("Not a string: " + this);
+        }
+        return Arrays.copyOfRange(bytes, stringStart(), stringEnd());
+    }
+
+    // The number of elements of an aggregate, where the keys and values of a map alternate; a null array has none
+    public int size() {
+        if (!isAggregate()) {
+            throw new IllegalStateException("Not an aggregate: " + this);
+        }
+        if (isNull()) {
+            return 0;
+        }
+        return bytes[offset] == '%' ? length() * 2 : length();
+    }
+
+    public RespValue get(int index) {
+        int size = size();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        if (elements == null) {
+            int[] offsets = new int[size];
+            int elementOffset = lineEnd(offset) + 2;
+            for (int i = 0; i < size; i++) {
+                offsets[i] = elementOffset;
+                elementOffset = end(elementOffset);
+            }
+            elements = offsets;
+        }
+        return new RespValue(bytes, elements[index], charset);
+    }
+
+    public List<RespValue> asList() {
+        int size = size();
+        return new AbstractList<RespValue>() {
+            @Override
+            public RespValue get(int index) {
+                return RespValue.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    // A RESP3 map, or a RESP2 array of alternating keys and values
+    public Map<String, RespValue> asMap() {
+        int size = size();
+        Map<String, RespValue> map = new LinkedHashMap<>(size);
+        for (int i = 0; i + 1 < size; i += 2) {
+            map.put(get(i).asString(), get(i + 1));
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        if (isNull()) {
+            return "null";
+        }
+        switch (type()) {
+            case MAP:
+                return asMap().toString();
+            case ERROR:
+                return "(error) " + asString();
+            default:
+                return isAggregate() ? asList().toString() : asString();
+        }
+    }
+
+    private boolean isAggregate() {
+        switch (bytes[offset]) {
+            case '*':
+            case '~':
+            case '%':
+            case '>':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isBlob() {
+        byte type = bytes[offset];
+        return type == '$' || type == '=' || type == '!';
+    }
+
+    private int stringStart() {
+        if (!isBlob()) {
+            return offset + 1;
+        }
+        // A verbatim string starts with its three letter format and a colon
+        return bytes[offset] == '=' ? payloadStart() + 4 : payloadStart();
+    }
+
+    private int stringEnd() {
+        return isBlob() ? payloadStart() + length() : lineEnd(offset);
+    }
+
+    private int payloadStart() {
+        return lineEnd(offset) + 2;
+    }
+
+    // The length of a blob or aggregate
+    private int length() {
+        return (int) parseLong(offset + 1, lineEnd(offset));
+    }
+
+    private int lineEnd(int from) {
+        int i = from;
+        while (bytes[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    // The offset right after the value that starts at the given offset
+    private int end(int from) {
+        int lineEnd = lineEnd(from);
+        int next = lineEnd + 2;
+        switch (bytes[from]) {
+            case '$':
+            case '=':
+            case '!': {
+                long len = parseLong(from + 1, lineEnd);
+                return len < 0 ? next : next + (int) len + 2;
+            }
+            case '*':
+            case '~':
+            case '%':
+            case '>': {
+                long len = parseLong(from + 1, lineEnd);
+                if (bytes[from] == '%') {
+                    len *= 2;
+                }
+                for (long i = 0; i < len; i++) {
+                    next = end(next);
+                }
+                return next;
+            }
+            default:
+                return next;
+        }
+    }
+
+    private long parseLong(int from, int to) {
+        int i = from;
+        boolean negative = i < to && bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == to) {
+            throw new NumberFormatException("Not a number: " + new String(bytes, from, to - from, charset));
+        }
+        long n = 0;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9') {
+                throw new NumberFormatException("Not a number: " + new String(bytes, from, to - from, charset));
+            }
+            n = n * 10 + (b - '0');
+        }
+        return negative ? -n : n;
+    }
+
+    public enum Type {
+        SIMPLE_STRING, ERROR, INTEGER, BULK_STRING, ARRAY,
+        // RESP3 only
+        NULL, DOUBLE, BOOLEAN, BIG_NUMBER, VERBATIM_STRING, MAP, SET, PUSH
+    }
+}
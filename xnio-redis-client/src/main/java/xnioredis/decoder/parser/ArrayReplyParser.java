@@ -1,7 +1,48 @@
 package xnioredis.decoder.parser;
 
+import xnioredis.decoder.ArrayBuilderFactory;
+import xnioredis.decoder.BulkStringBuilderFactory;
+import xnioredis.decoder.MapBuilderFactory;
+import xnioredis.decoder.RespValue;
+
 public class ArrayReplyParser<T> extends SuccessOrFailureParser<T> {
     public ArrayReplyParser(Parser<T> parser) {
         super('*', parser);
     }
+
+    private ArrayReplyParser(Parser<T> parser, Shape shape) {
+        super('*', parser, shape);
+    }
+
+    public static ArrayReplyParser<RespValue> value() {
+        return new ArrayReplyParser<>(new RespValueParser((byte) '*'), Shape.ARRAY_VALUE);
+    }
+
+    public <E> ArrayReplyParser(ArrayBuilderFactory<E, ? extends T> arrayBuilderFactory,
+            BulkStringBuilderFactory<? extends E> elementBuilderFactory) {
+        super('*', arrayParser(arrayBuilderFactory, element(elementBuilderFactory)),
+                new Shape(Shape.Kind.ARRAY, elementBuilderFactory, arrayBuilderFactory, null));
+    }
+
+    public <K, V> ArrayReplyParser(MapBuilderFactory<K, V, ? extends T> mapBuilderFactory,
+            BulkStringBuilderFactory<? extends K> keyBuilderFactory,
+            BulkStringBuilderFactory<? extends V> valueBuilderFactory) {
+        super('*', mapParser(mapBuilderFactory,
+                SeqParser.seq(element(keyBuilderFactory), element(valueBuilderFactory))),
+                new Shape(Shape.Kind.MAP, keyBuilderFactory, mapBuilderFactory, valueBuilderFactory));
+    }
+
+    private static <E, T> Parser<T> arrayParser(ArrayBuilderFactory<E, ? extends T> arrayBuilderFactory,
+            Parser<E> elementParser) {
+        return new LenParser<>(len -> new ArrayParser<>(len, arrayBuilderFactory, elementParser));
+    }
+
+    private static <K, V, T> Parser<T> mapParser(MapBuilderFactory<K, V, ? extends T> mapBuilderFactory,
+            SeqParser<K, V> kvParser) {
+        return new LenParser<>(len -> new ArrayAsMapParser<>(len / 2, mapBuilderFactory, kvParser));
+    }
+
+    private static <T> Parser<T> element(BulkStringBuilderFactory<? extends T> builderFactory) {
+        return new PrefixedParser<>('$', new LenParser<>(len -> new BulkStringParser<>(len, builderFactory)));
+    }
 }
@@ -1,7 +1,14 @@
 package xnioredis.decoder.parser;
 
+import xnioredis.decoder.BulkStringBuilderFactory;
+
 public class BulkStringReplyParser<T> extends SuccessOrFailureParser<T> {
     public BulkStringReplyParser(Parser<T> parser) {
         super('$', parser);
     }
+
+    public BulkStringReplyParser(BulkStringBuilderFactory<? extends T> builderFactory) {
+        super('$', new LenParser<>(len -> new BulkStringParser<>(len, builderFactory)),
+                new Shape(Shape.Kind.BULK_STRING, builderFactory, null, null));
+    }
 }
@@ -0,0 +1,624 @@
+package xnioredis.decoder.parser;
+
+import xnioredis.decoder.ArrayBuilderFactory;
+import xnioredis.decoder.BulkStringBuilderFactory;
+import xnioredis.decoder.ByteView;
+import xnioredis.decoder.LongArrayBuilderFactory;
+import xnioredis.decoder.MapBuilderFactory;
+import xnioredis.decoder.RespValue;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+
+// Decodes the replies of the parsers it supports keeping all parse state in this object, with an explicit stack of
+// frames for arrays, maps and reply sequences, so a reply that straddles reads allocates nothing but its result.
+// RespValue replies are only scanned for their end and copied. RESP3 replies are decoded too: maps and sets fill the
+// same builders as arrays, other scalars are decoded with the bulk string factory and attributes are skipped.
+// There is one per connection and it is only touched by the IO thread
+public final class FrameDecoder {
+    private static final int IDLE = 0;
+    private static final int TYPE = 1;
+    private static final int SIGN_OR_DIGIT = 2;
+    private static final int DIGIT = 3;
+    private static final int NUMBER_LF = 4;
+    private static final int LINE = 5;
+    private static final int LINE_LF = 6;
+    private static final int BULK = 7;
+    private static final int BULK_CR = 8;
+    private static final int BULK_LF = 9;
+    private static final int SCAN = 10;
+    private static final int SKIP = 11;
+    private static final int VERBATIM_PREFIX = 12;
+    // What the number being read is
+    private static final int VALUE = 0;
+    private static final int BULK_LENGTH = 1;
+    private static final int AGGREGATE_LENGTH = 2;
+    // What the line being read is
+    private static final int SIMPLE = 0;
+    private static final int ERROR = 1;
+    private static final int SCALAR = 2;
+    private static final int NULL = 3;
+    private static final int BOOLEAN = 4;
+    // The format of a verbatim string, such as "txt:", is dropped
+    private static final int VERBATIM_PREFIX_LENGTH = 4;
+    // Frame types
+    private static final int ARRAY = 0;
+    private static final int MAP = 1;
+    private static final int SEQUENCE = 2;
+    private final CharsetDecoder charsetDecoder;
+    private final RespScanner scanner = new RespScanner();
+    private int[] types = new int[4];
+    private int[] remaining = new int[4];
+    private Object[] builders = new Object[4];
+    // The ReplySequence of a sequence frame
+    private Object[] sources = new Object[4];
+    // The key waiting for its value in a map frame, the first failure in a sequence frame
+    private Object[] pending = new Object[4];
+    private int depth = 0;
+    private int state = IDLE;
+    // Of the innermost reply; array and map elements are decoded with the factories of their reply
+    private Shape shape;
+    private int numberType;
+    private boolean negative;
+    private long number;
+    // A RESP3 map header counts pairs rather than elements
+    private boolean pairs;
+    private char[] line = new char[64];
+    private int lineLength;
+    private int lineType;
+    private int prefixRemaining;
+    private int bulkRemaining;
+    // The bulk string is an element of an array of integers, parsed into number
+    private boolean longElement;
+    private boolean digits;
+    private BulkStringBuilderFactory.Builder<?> bulkBuilder;
+    private Object bulkValue;
+    private Object value;
+    private String error;
+    private RuntimeException thrown;
+
+    public FrameDecoder(CharsetDecoder charsetDecoder) {
+        this.charsetDecoder = charsetDecoder;
+    }
+
+    public static boolean supports(ReplyParser<?> parser) {
+        if (parser instanceof SuccessOrFailureParser) {
+            return ((SuccessOrFailureParser<?>) parser).shape != null;
+        }
+        return parser instanceof ReplySequence && ((ReplySequence<?, ?>) parser).framed;
+    }
+
+    public CharsetDecoder charsetDecoder() {
+        return charsetDecoder;
+    }
+
+    // Returns true once the whole reply has been decoded; parser is only looked at when a new reply starts
+    public boolean decode(ByteBuffer buffer, ReplyParser<?> parser) {
+        if (state == IDLE) {
+            thrown = null;
+            if (begin(parser)) {
+                return true;
+            }
+        }
+        while (buffer.hasRemaining()) {
+            switch (state) {
+                case TYPE:
+                    if (type(buffer.get())) {
+                        return true;
+                    }
+                    break;
+                case SIGN_OR_DIGIT:
+                case DIGIT: {
+                    if (state == SIGN_OR_DIGIT) {
+                        int cr = Lines.crlf(buffer);
+                        if (cr >= 0) {
+                            long n = Lines.parseLong(buffer, buffer.position(), cr);
+                            buffer.position(cr + 2);
+                            if (number(n)) {
+                                return true;
+                            }
+                            break;
+                        }
+                    }
+                    byte b = buffer.get();
+                    if (b >= '0' && b <= '9') {
+                        number = number * 10 + (b - '0');
+                        state = DIGIT;
+                    } else if (b == '-' && state == SIGN_OR_DIGIT) {
+                        negative = true;
+                        state = DIGIT;
+                    } else if (b == '\r') {
+                        state = NUMBER_LF;
+                    } else {
+                        throw new IllegalStateException("Unexpected character: " + (char) b);
+                    }
+                    break;
+                }
+                case NUMBER_LF:
+                    expect('\n', buffer.get());
+                    if (number(negative ? -number : number)) {
+                        return true;
+                    }
+                    break;
+                case LINE: {
+                    if (lineLength == 0) {
+                        int cr = Lines.crlf(buffer);
+                        if (cr >= 0) {
+                            copyLine(buffer, cr);
+                            if (line()) {
+                                return true;
+                            }
+                            break;
+                        }
+                    }
+                    byte b = buffer.get();
+                    if (b == '\r') {
+                        state = LINE_LF;
+                    } else {
+                        if (lineLength == line.length) {
+                            line = Arrays.copyOf(line, lineLength * 2);
+                        }
+                        line[lineLength++] = (char) (b & 0xff);
+                    }
+                    break;
+                }
+                case LINE_LF:
+                    expect('\n', buffer.get());
+                    if (line()) {
+                        return true;
+                    }
+                    break;
+                case VERBATIM_PREFIX: {
+                    int n = Math.min(buffer.remaining(), prefixRemaining);
+                    buffer.position(buffer.position() + n);
+                    prefixRemaining -= n;
+                    if (prefixRemaining == 0) {
+                        state = BULK;
+                    }
+                    break;
+                }
+                case BULK:
+                    bulk(buffer);
+                    break;
+                case BULK_CR:
+                    expect('\r', buffer.get());
+                    state = BULK_LF;
+                    break;
+                case BULK_LF: {
+                    expect('\n', buffer.get());
+                    if (longElement) {
+                        longElement = false;
+                        if (element(negative ? number : -number)) {
+                            return true;
+                        }
+                        break;
+                    }
+                    Object v = bulkValue;
+                    bulkValue = null;
+                    if (complete(v)) {
+                        return true;
+                    }
+                    break;
+                }
+                case SCAN:
+                    if (scanner.scan(buffer)) {
+                        RespValue v = scanner.value(charsetDecoder.charset());
+                        // Only a blob error of the reply itself is scanned on its own
+                        if (v.type() == RespValue.Type.ERROR ? failed(v.asString()) : complete(v)) {
+                            return true;
+                        }
+                    }
+                    break;
+                case SKIP:
+                    if (scanner.scan(buffer)) {
+                        state = TYPE;
+                    }
+                    break;
+            }
+        }
+        return false;
+    }
+
+    // The value of the last decoded reply, unless it failed
+    @Nullable
+    public Object value() {
+        Object v = value;
+        value = null;
+        return v;
+    }
+
+    // The error message of the last decoded reply, or null if it succeeded
+    @Nullable
+    public String error() {
+        String e = error;
+        error = null;
+        return e;
+    }
+
+    // What a builder of the last decoded reply threw; the reply was still read to its end
+    @Nullable
+    public RuntimeException thrown() {
+        RuntimeException t = thrown;
+        thrown = null;
+        return t;
+    }
+
+    // Drops a reply that was being decoded when decoding failed, releasing the views its frames hold
+    public void reset() {
+        for (int d = 0; d < depth; d++) {
+            if (types[d] == MAP) {
+                ((MapBuilderFactory.Builder<?, ?, ?>) builders[d]).discard();
+                ByteView.releaseAll(pending[d]);
+            } else {
+                ((ArrayBuilderFactory.Builder<?, ?>) builders[d]).discard();
+            }
+        }
+        if (bulkBuilder != null) {
+            bulkBuilder.discard();
+        }
+        ByteView.releaseAll(bulkValue);
+        ByteView.releaseAll(value);
+        Arrays.fill(builders, null);
+        Arrays.fill(sources, null);
+        Arrays.fill(pending, null);
+        depth = 0;
+        state = IDLE;
+        shape = null;
+        longElement = false;
+        bulkBuilder = null;
+        bulkValue = null;
+        value = null;
+        error = null;
+        thrown = null;
+    }
+
+    private boolean begin(ReplyParser<?> parser) {
+        if (parser instanceof ReplySequence) {
+            ReplySequence<?, ?> sequence = (ReplySequence<?, ?>) parser;
+            int size = sequence.size();
+            push(SEQUENCE, size, sequence.builderFactory().create(size), sequence);
+            return size > 0 ? begin(sequence.parser(0)) : finish();
+        }
+        shape = ((SuccessOrFailureParser<?>) parser).shape;
+        state = TYPE;
+        return false;
+    }
+
+    private boolean type(byte b) {
+        if (b == '|') {
+            // An attribute only describes the value that follows, so it is skipped like a map
+            scanner.start((byte) '%');
+            state = SKIP;
+        } else if (depth > 0 && types[depth - 1] != SEQUENCE) {
+            // Array and map elements are decoded with the bulk string factories
+            blob(b);
+        } else if (b == '-') {
+            readLine(ERROR);
+        } else if (b == '!') {
+            scanner.start(b);
+            state = SCAN;
+        } else {
+            switch (shape.kind) {
+                case BOOLEAN:
+                case INTEGER:
+                case LONG:
+                    // RESP2 has integers instead of booleans
+                    if (shape.kind == Shape.Kind.BOOLEAN && b == '#') {
+                        readLine(BOOLEAN);
+                    } else {
+                        expect(':', b);
+                        readNumber(VALUE);
+                    }
+                    break;
+                case SIMPLE_STRING:
+                    expect('+', b);
+                    readLine(SIMPLE);
+                    break;
+                case BULK_STRING:
+                    blob(b);
+                    break;
+                case ARRAY:
+                case MAP:
+                    aggregate(b);
+                    break;
+                default:
+                    // An array value is scanned like any other value once its type is checked
+                    if (shape.kind == Shape.Kind.ARRAY_VALUE && b != '_' && b != '*' && b != '~' && b != '%') {
+                        expect('*', b);
+                    }
+                    scanner.start(b);
+                    state = SCAN;
+            }
+        }
+        return false;
+    }
+
+    // A value decoded with a bulk string factory
+    private void blob(byte b) {
+        switch (b) {
+            case '=':
+                prefixRemaining = VERBATIM_PREFIX_LENGTH;
+                readNumber(BULK_LENGTH);
+                break;
+            case '_':
+                readLine(NULL);
+                break;
+            case '+':
+            case ':':
+            case ',':
+            case '(':
+                readLine(SCALAR);
+                break;
+            default:
+                expect('$', b);
+                prefixRemaining = 0;
+                readNumber(BULK_LENGTH);
+        }
+    }
+
+    private void aggregate(byte b) {
+        if (b == '_') {
+            readLine(NULL);
+            return;
+        }
+        if (b != '*' && b != '~') {
+            expect('%', b);
+        }
+        pairs = b == '%';
+        readNumber(AGGREGATE_LENGTH);
+    }
+
+    private void readNumber(int type) {
+        numberType = type;
+        negative = false;
+        number = 0;
+        state = SIGN_OR_DIGIT;
+    }
+
+    private void readLine(int type) {
+        lineType = type;
+        lineLength = 0;
+        state = LINE;
+    }
+
+    private void copyLine(ByteBuffer buffer, int cr) {
+        int from = buffer.position();
+        lineLength = cr - from;
+        if (lineLength > line.length) {
+            line = new char[Math.max(lineLength, line.length * 2)];
+        }
+        for (int i = 0; i < lineLength; i++) {
+            line[i] = (char) (buffer.get(from + i) & 0xff);
+        }
+        buffer.position(cr + 2);
+    }
+
+    private boolean line() {
+        switch (lineType) {
+            case ERROR:
+                return failed(new String(line, 0, lineLength));
+            case NULL:
+                return complete(null);
+            case BOOLEAN:
+                return complete(lineLength == 1 && line[0] == 't');
+            case SCALAR: {
+                // Doubles and big numbers are rare enough to be copied
+                byte[] bytes = new byte[lineLength];
+                for (int i = 0; i < lineLength; i++) {
+                    bytes[i] = (byte) line[i];
+                }
+                return complete(bulkFactory().decode(ByteBuffer.wrap(bytes), charsetDecoder));
+            }
+            default:
+                return complete(new String(line, 0, lineLength));
+        }
+    }
+
+    private boolean number(long n) {
+        switch (numberType) {
+            case VALUE:
+                if (shape.kind == Shape.Kind.INTEGER) {
+                    return complete(Integer.valueOf((int) n));
+                } else if (shape.kind == Shape.Kind.BOOLEAN) {
+                    return complete(n != 0);
+                }
+                return complete(Long.valueOf(n));
+            case BULK_LENGTH:
+                if (n < 0) {
+                    return complete(null);
+                }
+                bulkRemaining = (int) n - prefixRemaining;
+                state = prefixRemaining > 0 ? VERBATIM_PREFIX : BULK;
+                if (depth > 0 && builders[depth - 1] instanceof LongArrayBuilderFactory.Builder) {
+                    longElement = true;
+                    digits = false;
+                    negative = false;
+                    number = 0;
+                }
+                return false;
+            default:
+                if (n < 0) {
+                    return complete(null);
+                }
+                int len = (int) (pairs ? n * 2 : n);
+                if (shape.kind == Shape.Kind.MAP) {
+                    push(MAP, len / 2 * 2, ((MapBuilderFactory<?, ?, ?>) shape.aggregateFactory).create(len / 2),
+                            null);
+                } else {
+                    push(ARRAY, len, ((ArrayBuilderFactory<?, ?>) shape.aggregateFactory).create(len), null);
+                }
+                return remaining[depth - 1] > 0 ? next(depth - 1) : finish();
+        }
+    }
+
+    // Map values have their own factory
+    private BulkStringBuilderFactory<?> bulkFactory() {
+        return shape.kind == Shape.Kind.MAP && (remaining[depth - 1] & 1) == 1 ? shape.valueFactory :
+                shape.bulkFactory;
+    }
+
+    private void bulk(ByteBuffer buffer) {
+        if (longElement) {
+            longElement(buffer);
+            return;
+        }
+        BulkStringBuilderFactory<?> factory = bulkFactory();
+        if (buffer.remaining() < bulkRemaining) {
+            if (bulkBuilder == null) {
+                bulkBuilder = factory.create(bulkRemaining, charsetDecoder);
+            }
+            bulkRemaining -= buffer.remaining();
+            bulkBuilder.append(buffer);
+            return;
+        }
+        int limit = buffer.limit();
+        int end = buffer.position() + bulkRemaining;
+        buffer.limit(end);
+        try {
+            if (bulkBuilder == null) {
+                // The whole payload is in the buffer, so it is decoded in place
+                bulkValue = factory.decode(buffer, charsetDecoder);
+            } else {
+                bulkBuilder.appendLast(buffer);
+                bulkValue = bulkBuilder.build();
+                bulkBuilder = null;
+            }
+        } finally {
+            buffer.limit(limit);
+            buffer.position(end);
+        }
+        state = BULK_CR;
+    }
+
+    // Accumulated as a negative number, like Long.parseLong, so that Long.MIN_VALUE fits
+    private void longElement(ByteBuffer buffer) {
+        int n = Math.min(buffer.remaining(), bulkRemaining);
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            byte b = buffer.get();
+            int digit = b - '0';
+            if (digit >= 0 && digit <= 9) {
+                if (number < limit / 10 || number * 10 < limit + digit) {
+                    throw new NumberFormatException("Integer element overflows a long");
+                }
+                number = number * 10 - digit;
+                digits = true;
+            } else if (b == '-' && !digits && !negative) {
+                negative = true;
+                limit = Long.MIN_VALUE;
+            } else {
+                throw new NumberFormatException("Not an integer element: unexpected '" + printable((char) b) + "'");
+            }
+        }
+        bulkRemaining -= n;
+        if (bulkRemaining == 0) {
+            if (!digits) {
+                throw new NumberFormatException("Empty integer element");
+            }
+            state = BULK_CR;
+        }
+    }
+
+    private void push(int type, int length, Object builder, @Nullable Object source) {
+        if (depth == types.length) {
+            types = Arrays.copyOf(types, depth * 2);
+            remaining = Arrays.copyOf(remaining, depth * 2);
+            builders = Arrays.copyOf(builders, depth * 2);
+            sources = Arrays.copyOf(sources, depth * 2);
+            pending = Arrays.copyOf(pending, depth * 2);
+        }
+        types[depth] = type;
+        remaining[depth] = length;
+        builders[depth] = builder;
+        sources[depth] = source;
+        depth++;
+    }
+
+    // Hands a decoded value to the innermost frame; returns true when the whole reply is complete
+    @SuppressWarnings("unchecked")
+    private boolean complete(@Nullable Object v) {
+        if (depth == 0) {
+            value = v;
+            state = IDLE;
+            return true;
+        }
+        int d = depth - 1;
+        if (types[d] != MAP) {
+            ((ArrayBuilderFactory.Builder<Object, ?>) builders[d]).add(v);
+        } else if ((remaining[d] & 1) == 0) {
+            pending[d] = v;
+        } else {
+            ((MapBuilderFactory.Builder<Object, Object, ?>) builders[d]).put(pending[d], v);
+            pending[d] = null;
+        }
+        return --remaining[d] > 0 ? next(d) : finish();
+    }
+
+    // An element of an array of integers
+    private boolean element(long n) {
+        int d = depth - 1;
+        ((LongArrayBuilderFactory.Builder<?>) builders[d]).add(n);
+        return --remaining[d] > 0 ? next(d) : finish();
+    }
+
+    // Only replies fail, and they are never elements of arrays or maps
+    private boolean failed(String message) {
+        if (depth == 0) {
+            error = message;
+            state = IDLE;
+            return true;
+        }
+        int d = depth - 1;
+        if (pending[d] == null) {
+            pending[d] = message;
+        }
+        ((ArrayBuilderFactory.Builder<?, ?>) builders[d]).add(null);
+        return --remaining[d] > 0 ? next(d) : finish();
+    }
+
+    private boolean next(int d) {
+        if (types[d] == SEQUENCE) {
+            ReplySequence<?, ?> sequence = (ReplySequence<?, ?>) sources[d];
+            return begin(sequence.parser(sequence.size() - remaining[d]));
+        }
+        state = TYPE;
+        return false;
+    }
+
+    private boolean finish() {
+        int d = --depth;
+        Object builder = builders[d];
+        Object failure = types[d] == SEQUENCE ? pending[d] : null;
+        builders[d] = null;
+        sources[d] = null;
+        pending[d] = null;
+        if (failure != null) {
+            return failed((String) failure);
+        }
+        Object built;
+        try {
+            built = types[d] == MAP ? ((MapBuilderFactory.Builder<?, ?, ?>) builder).build() :
+                    ((ArrayBuilderFactory.Builder<?, ?>) builder).build();
+        } catch (RuntimeException e) {
+            // All of its elements have been read, so the reply fails without losing the start of the next one
+            if (thrown == null) {
+                thrown = e;
+            }
+            built = null;
+        }
+        return complete(built);
+    }
+
+    private static void expect(char expected, byte b) {
+        if (b != expected) {
+            throw new IllegalStateException(
+                    "'" + printable(expected) + "' is expected but '" + printable((char) b) + "' was found");
+        }
+    }
+
+    private static String printable(char c) {
+        return c == '\r' ? "\\r" : c == '\n' ? "\\n" : String.valueOf(c);
+    }
+}
@@ -1,7 +1,21 @@
 package xnioredis.decoder.parser;
 
+import javax.annotation.Nullable;
+
 public class IntegerReplyParser<T> extends SuccessOrFailureParser<T> {
     public IntegerReplyParser(Parser<T> parser) {
-        super(':', parser);
+        super(':', parser, shape(parser));
+    }
+
+    @Nullable
+    private static Shape shape(Parser<?> parser) {
+        if (parser == LongParser.INTEGER_PARSER) {
+            return Shape.INTEGER;
+        } else if (parser == LongParser.LONG_PARSER) {
+            return Shape.LONG;
+        } else if (parser == LongParser.BOOLEAN_PARSER) {
+            return Shape.BOOLEAN;
+        }
+        return null;
     }
 }
@@ -0,0 +1,78 @@
+package xnioredis.decoder.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Lines that are whole in the buffer, scanned eight bytes at a time. The parsers fall back to their state machines
+// when a line is split between reads
+final class Lines {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long CRS = '\r' * ONES;
+
+    private Lines() {
+    }
+
+    // The index of the CR of a CRLF that is in the buffer, or -1
+    static int crlf(ByteBuffer buffer) {
+        int limit = buffer.limit() - 1;
+        int i = buffer.position();
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        for (; i + 8 <= limit; i += 8) {
+            long word = buffer.getLong(i) ^ CRS;
+            // The high bit of every zero byte, without the false positives of the shorter form
+            long zeros = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+            if (zeros != 0) {
+                i += (bigEndian ? Long.numberOfLeadingZeros(zeros) : Long.numberOfTrailingZeros(zeros)) >>> 3;
+                return lf(buffer, i);
+            }
+        }
+        for (; i < limit; i++) {
+            if (buffer.get(i) == '\r') {
+                return lf(buffer, i);
+            }
+        }
+        return -1;
+    }
+
+    private static int lf(ByteBuffer buffer, int cr) {
+        if (buffer.get(cr + 1) != '\n') {
+            throw new IllegalStateException("LF is expected");
+        }
+        return cr;
+    }
+
+    // An optional minus and digits, with the same lack of overflow checks as the state machines
+    static long parseLong(ByteBuffer buffer, int from, int to) {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        long num = 0;
+        for (; i + 8 <= to; i += 8) {
+            long word = buffer.getLong(i);
+            if (buffer.order() == ByteOrder.BIG_ENDIAN) {
+                word = Long.reverseBytes(word);
+            }
+            // Every byte is '0' to '9' when adding 6 keeps the high nibble at 3
+            if (((word & 0xf0f0f0f0f0f0f0f0L) | (((word + 0x0606060606060606L) & 0xf0f0f0f0f0f0f0f0L) >>> 4)) !=
+                    0x3333333333333333L) {
+                break;
+            }
+            num = num * 100000000 + eightDigits(word);
+        }
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                throw new IllegalStateException("Unexpected character: " + (char) b);
+            }
+            num = num * 10 + (b - '0');
+        }
+        return negative ? -num : num;
+    }
+
+    // The first digit is in the lowest byte; pairs, then quads, then the eight are combined by multiplication
+    private static long eightDigits(long word) {
+        word = ((word & 0x0f0f0f0f0f0f0f0fL) * 2561) >>> 8;
+        word = ((word & 0x00ff00ff00ff00ffL) * 6553601) >>> 16;
+        return ((word & 0x0000ffff0000ffffL) * 42949672960001L) >>> 32;
+    }
+}
@@ -9,11 +9,18 @@ public abstract class LongParser {
     static final LongParser PARSER = new LongParser() {
         @Override
         <T> T parse(ByteBuffer buffer, LongFunction<T> resultHandler, PartialHandler<T> partialHandler) {
+            int cr = Lines.crlf(buffer);
+            if (cr >= 0) {
+                long num = Lines.parseLong(buffer, buffer.position(), cr);
+                buffer.position(cr + 2);
+                return resultHandler.apply(num);
+            }
             return doParse(buffer, resultHandler, partialHandler, false, 0, SIGN_OR_DIGIT);
         }
     };
     public static final Parser<Integer> INTEGER_PARSER = new ParserAdaptor<>(PARSER, l -> (int) l);
     public static final Parser<Long> LONG_PARSER = new ParserAdaptor<>(PARSER, l -> l);
+    public static final Parser<Boolean> BOOLEAN_PARSER = new ParserAdaptor<>(PARSER, l -> l != 0);
     private static final int SIGN_OR_DIGIT = 0;
     private static final int DIGIT = 1;
     private static final int WAITING_FOR_LF = 2;
@@ -24,13 +31,14 @@ public abstract class LongParser {
             boolean negative, long num, int state) {
         while (buffer.hasRemaining()) {
             byte b = buffer.get();
+            if (state == SIGN_OR_DIGIT) {
+                state = DIGIT;
+                if (b == '-') {
+                    negative = true;
+                    continue;
+                }
+            }
             switch (state) {
-                case SIGN_OR_DIGIT:
-                    state = DIGIT;
-                    if (b == '-') {
-                        negative = true;
-                        break;
-                    }
                 case DIGIT:
                     switch (b) {
                         case '0':
@@ -35,5 +35,9 @@ public interface ReplyParser<T> {
 
     interface FailureHandler<U> {
         U failure(CharSequence message);
+
+        default U failure(Throwable cause) {
+            return failure(cause.toString());
+        }
     }
 }
@@ -0,0 +1,93 @@
+package xnioredis.decoder.parser;
+
+import xnioredis.decoder.ArrayBuilderFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// Consecutive replies combined into one result. A failed reply does not stop the others from being read, so the
+// connection stays in sync; the first failure is reported once the whole sequence has been read.
+// parseReply keeps its progress in this object, so a fresh sequence is needed for every request
+public class ReplySequence<E, T> implements ReplyParser<T> {
+    private final List<ReplyParser<? extends E>> parsers;
+    private final ArrayBuilderFactory<E, ? extends T> builderFactory;
+    final boolean framed;
+    private ArrayBuilderFactory.Builder<E, ? extends T> builder;
+    private int next = 0;
+    private Object failure;
+
+    public ReplySequence(List<? extends ReplyParser<? extends E>> parsers,
+            ArrayBuilderFactory<E, ? extends T> builderFactory) {
+        this.parsers = new ArrayList<>(parsers);
+        this.builderFactory = builderFactory;
+        this.framed = parsers.stream().allMatch(FrameDecoder::supports);
+    }
+
+    int size() {
+        return parsers.size();
+    }
+
+    ReplyParser<? extends E> parser(int i) {
+        return parsers.get(i);
+    }
+
+    ArrayBuilderFactory<E, ? extends T> builderFactory() {
+        return builderFactory;
+    }
+
+    @Override
+    public <U> U parseReply(ByteBuffer buffer, Function<? super T, U> resultHandler,
+            PartialReplyHandler<? super T, U> partialReplyHandler, FailureHandler<U> failureHandler,
+            CharsetDecoder charsetDecoder) {
+        if (builder == null) {
+            builder = builderFactory.create(parsers.size());
+        }
+        if (next < parsers.size()) {
+            return doParse(buffer, resultHandler, partialReplyHandler, failureHandler, parsers.get(next++),
+                    charsetDecoder);
+        } else if (failure instanceof Throwable) {
+            return failureHandler.failure((Throwable) failure);
+        } else if (failure != null) {
+            return failureHandler.failure((CharSequence) failure);
+        } else {
+            return resultHandler.apply(builder.build());
+        }
+    }
+
+    private <U> U doParse(ByteBuffer buffer, Function<? super T, U> resultHandler,
+            PartialReplyHandler<? super T, U> partialReplyHandler, FailureHandler<U> failureHandler,
+            ReplyParser<? extends E> parser, CharsetDecoder charsetDecoder) {
+        return parser.parseReply(buffer, value -> {
+            builder.add(value);
+            return parseReply(buffer, resultHandler, partialReplyHandler, failureHandler, charsetDecoder);
+        }, partial -> partialReplyHandler.partialReply(new ReplyParser<T>() {
+            @Override
+            public <U1> U1 parseReply(ByteBuffer buffer, Function<? super T, U1> resultHandler,
+                    PartialReplyHandler<? super T, U1> partialReplyHandler, FailureHandler<U1> failureHandler,
+                    CharsetDecoder charsetDecoder) {
+                return doParse(buffer, resultHandler, partialReplyHandler, failureHandler, partial, charsetDecoder);
+            }
+        }), new FailureHandler<U>() {
+            @Override
+            public U failure(CharSequence message) {
+                return failed(message.toString());
+            }
+
+            @Override
+            public U failure(Throwable cause) {
+                return failed(cause);
+            }
+
+            private U failed(Object cause) {
+                if (failure == null) {
+                    failure = cause;
+                }
+                builder.add(null);
+                return parseReply(buffer, resultHandler, partialReplyHandler, failureHandler, charsetDecoder);
+            }
+        }, charsetDecoder);
+    }
+}
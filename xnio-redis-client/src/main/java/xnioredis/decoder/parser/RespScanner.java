@@ -0,0 +1,211 @@
+package xnioredis.decoder.parser;
+
+import xnioredis.decoder.RespValue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Finds where a RESP2 or RESP3 value of any type ends and copies its bytes, tracking nesting with a stack of the
+// elements that each open aggregate still expects. Nothing is decoded, that is left to RespValue. Attributes are
+// dropped: they are not a value of their own but describe the one that follows
+final class RespScanner {
+    private static final int MAX_RETAINED = 64 * 1024;
+    private static final int TYPE = 0;
+    private static final int LINE = 1;
+    private static final int LINE_LF = 2;
+    private static final int BULK = 3;
+    private byte[] bytes = new byte[64];
+    private int length;
+    private int[] remaining = new int[8];
+    // Where an attribute starts so that it can be dropped, or -1 for other aggregates
+    private int[] attributeStart = new int[8];
+    private int depth;
+    private int state;
+    private byte type;
+    private int lineStart;
+    private int bulkRemaining;
+
+    void reset() {
+        if (bytes.length > MAX_RETAINED) {
+            bytes = new byte[64];
+        }
+        length = 0;
+        depth = 0;
+        state = TYPE;
+    }
+
+    // Starts with a type byte that has already been read
+    void start(byte type) {
+        reset();
+        startLine(type);
+    }
+
+    // Returns true once a whole value has been read; bytes after it are left in the buffer
+    boolean scan(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            switch (state) {
+                case TYPE:
+                    startLine(buffer.get());
+                    break;
+                case LINE: {
+                    byte b = buffer.get();
+                    put(b);
+                    if (b == '\r') {
+                        state = LINE_LF;
+                    }
+                    break;
+                }
+                case LINE_LF: {
+                    byte b = buffer.get();
+                    if (b != '\n') {
+                        throw new IllegalStateException("LF is expected");
+                    }
+                    put(b);
+                    if (lineDone()) {
+                        return true;
+                    }
+                    break;
+                }
+                case BULK: {
+                    int n = Math.min(buffer.remaining(), bulkRemaining);
+                    ensureCapacity(n);
+                    buffer.get(bytes, length, n);
+                    length += n;
+                    bulkRemaining -= n;
+                    if (bulkRemaining == 0) {
+                        if (bytes[length - 2] != '\r' || bytes[length - 1] != '\n') {
+                            throw new IllegalStateException("CRLF is expected");
+                        }
+                        if (valueDone()) {
+                            return true;
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    RespValue value(Charset charset) {
+        return new RespValue(Arrays.copyOf(bytes, length), charset);
+    }
+
+    private void startLine(byte b) {
+        switch (b) {
+            case '+':
+            case '-':
+            case ':':
+            case '$':
+            case '*':
+            case '_':
+            case ',':
+            case '#':
+            case '(':
+            case '=':
+            case '!':
+            case '~':
+            case '%':
+            case '|':
+            case '>':
+                break;
+            default:
+                throw new IllegalStateException("Unexpected RESP type: '" + (char) b + '\'');
+        }
+        type = b;
+        put(b);
+        lineStart = length;
+        state = LINE;
+    }
+
+    private boolean lineDone() {
+        switch (type) {
+            case '$':
+            case '=':
+            case '!': {
+                long len = lineNumber();
+                if (len < 0) {
+                    return valueDone();
+                }
+                bulkRemaining = (int) len + 2;
+                state = BULK;
+                return false;
+            }
+            case '*':
+            case '~':
+            case '>':
+                return aggregate(lineNumber(), -1);
+            case '%':
+                return aggregate(lineNumber() * 2, -1);
+            case '|':
+                return aggregate(lineNumber() * 2, lineStart - 1);
+            default:
+                return valueDone();
+        }
+    }
+
+    private boolean aggregate(long len, int start) {
+        if (len <= 0) {
+            return start < 0 ? valueDone() : attributeDone(start);
+        }
+        if (depth == remaining.length) {
+            remaining = Arrays.copyOf(remaining, depth * 2);
+            attributeStart = Arrays.copyOf(attributeStart, depth * 2);
+        }
+        remaining[depth] = (int) len;
+        attributeStart[depth++] = start;
+        state = TYPE;
+        return false;
+    }
+
+    private boolean valueDone() {
+        while (depth > 0) {
+            if (--remaining[depth - 1] > 0) {
+                state = TYPE;
+                return false;
+            }
+            depth--;
+            if (attributeStart[depth] >= 0) {
+                return attributeDone(attributeStart[depth]);
+            }
+        }
+        state = TYPE;
+        return true;
+    }
+
+    // The value the attribute describes comes next and takes its place
+    private boolean attributeDone(int start) {
+        length = start;
+        state = TYPE;
+        return false;
+    }
+
+    private long lineNumber() {
+        int i = lineStart;
+        boolean negative = bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long n = 0;
+        for (; i < length - 2; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9') {
+                throw new IllegalStateException("Unexpected character: " + (char) b);
+            }
+            n = n * 10 + (b - '0');
+        }
+        return negative ? -n : n;
+    }
+
+    private void put(byte b) {
+        ensureCapacity(1);
+        bytes[length++] = b;
+    }
+
+    private void ensureCapacity(int n) {
+        if (length + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package xnioredis.decoder.parser;
+
+import xnioredis.decoder.RespValue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.function.Function;
+
+class RespValueParser implements Parser<RespValue> {
+    private final byte type;
+
+    RespValueParser(byte type) {
+        this.type = type;
+    }
+
+    @Override
+    public <U> U parse(ByteBuffer buffer, Function<? super RespValue, U> resultHandler,
+            PartialHandler<? super RespValue, U> partialHandler, CharsetDecoder charsetDecoder) {
+        RespScanner scanner = new RespScanner();
+        scanner.start(type);
+        return doParse(buffer, resultHandler, partialHandler, scanner, charsetDecoder);
+    }
+
+    private static <U> U doParse(ByteBuffer buffer, Function<? super RespValue, U> resultHandler,
+            PartialHandler<? super RespValue, U> partialHandler, RespScanner scanner,
+            CharsetDecoder charsetDecoder) {
+        if (scanner.scan(buffer)) {
+            return resultHandler.apply(scanner.value(charsetDecoder.charset()));
+        }
+        return partialHandler.partial(new Parser<RespValue>() {
+            @Override
+            public <U1> U1 parse(ByteBuffer buffer, Function<? super RespValue, U1> resultHandler,
+                    PartialHandler<? super RespValue, U1> partialHandler, CharsetDecoder charsetDecoder) {
+                return doParse(buffer, resultHandler, partialHandler, scanner, charsetDecoder);
+            }
+        });
+    }
+}
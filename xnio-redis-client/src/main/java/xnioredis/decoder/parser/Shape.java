@@ -0,0 +1,35 @@
+package xnioredis.decoder.parser;
+
+import xnioredis.decoder.BulkStringBuilderFactory;
+
+import javax.annotation.Nullable;
+
+// What FrameDecoder needs to know to decode a reply without continuations
+final class Shape {
+    static final Shape INTEGER = new Shape(Kind.INTEGER, null, null, null);
+    static final Shape LONG = new Shape(Kind.LONG, null, null, null);
+    static final Shape BOOLEAN = new Shape(Kind.BOOLEAN, null, null, null);
+    static final Shape SIMPLE_STRING = new Shape(Kind.SIMPLE_STRING, null, null, null);
+    static final Shape VALUE = new Shape(Kind.VALUE, null, null, null);
+    static final Shape ARRAY_VALUE = new Shape(Kind.ARRAY_VALUE, null, null, null);
+    final Kind kind;
+    // Decodes the bulk string reply, the array elements or the map keys
+    @Nullable final BulkStringBuilderFactory<?> bulkFactory;
+    // ArrayBuilderFactory or MapBuilderFactory
+    @Nullable final Object aggregateFactory;
+    @Nullable final BulkStringBuilderFactory<?> valueFactory;
+
+    Shape(Kind kind, @Nullable BulkStringBuilderFactory<?> bulkFactory, @Nullable Object aggregateFactory,
+            @Nullable BulkStringBuilderFactory<?> valueFactory) {
+        this.kind = kind;
+        this.bulkFactory = bulkFactory;
+        this.aggregateFactory = aggregateFactory;
+        this.valueFactory = valueFactory;
+    }
+
+    enum Kind {
+        INTEGER, LONG, BOOLEAN, SIMPLE_STRING, BULK_STRING, ARRAY, MAP,
+        // A RespValue of any type, or only of an aggregate
+        VALUE, ARRAY_VALUE
+    }
+}
@@ -2,6 +2,6 @@ package xnioredis.decoder.parser;
 
 public class SimpleStringReplyParser<T> extends SuccessOrFailureParser<T> {
     public SimpleStringReplyParser(Parser<T> parser) {
-        super('+', parser);
+        super('+', parser, parser == StringParser.INSTANCE ? Shape.SIMPLE_STRING : null);
     }
 }
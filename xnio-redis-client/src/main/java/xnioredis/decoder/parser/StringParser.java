@@ -2,6 +2,7 @@ package xnioredis.decoder.parser;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
 
 public class StringParser implements Parser<CharSequence> {
@@ -15,9 +16,28 @@ public class StringParser implements Parser<CharSequence> {
     @Override
     public <U> U parse(ByteBuffer buffer, Function<? super CharSequence, U> resultHandler,
             PartialHandler<? super CharSequence, U> partialHandler, CharsetDecoder charsetDecoder) {
+        // A line that is all in the buffer becomes a string at once, the state machine is for lines split between reads
+        int position = buffer.position();
+        int cr = Lines.crlf(buffer);
+        if (cr >= 0) {
+            String line = latin1(buffer, position, cr);
+            buffer.position(cr + 2);
+            return resultHandler.apply(line);
+        }
         return doParse(buffer, resultHandler, partialHandler, new StringBuilder(), READING);
     }
 
+    private static String latin1(ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + from, to - from, StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            bytes[i - from] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
     private static <U> U doParse(ByteBuffer buffer, Function<? super CharSequence, U> resultHandler,
             PartialHandler<? super CharSequence, U> partialHandler, StringBuilder stringBuilder, int state) {
         while (buffer.hasRemaining()) {
@@ -27,7 +47,7 @@ public class StringParser implements Parser<CharSequence> {
                     if (b == '\r') {
                         state = WAITING_FOR_LF;
                     } else {
-                        stringBuilder.append((char) b);
+                        stringBuilder.append((char) (b & 0xff));
                     }
                     break;
                 case WAITING_FOR_LF:
@@ -1,5 +1,6 @@
 package xnioredis.decoder.parser;
 
+import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.nio.charset.CharsetDecoder;
 import java.util.function.Function;
@@ -8,10 +9,17 @@ class SuccessOrFailureParser<T> implements ReplyParser<T> {
     private final ErrorParser<T> errorParser = new ErrorParser<>();
     private final char marker;
     private final Parser<T> parser;
+    // Null when the reply can only be parsed with continuations
+    @Nullable final Shape shape;
 
     SuccessOrFailureParser(char marker, Parser<T> parser) {
+        this(marker, parser, null);
+    }
+
+    SuccessOrFailureParser(char marker, Parser<T> parser, @Nullable Shape shape) {
         this.marker = marker;
         this.parser = parser;
+        this.shape = shape;
     }
 
     @Override
@@ -25,6 +33,10 @@ class SuccessOrFailureParser<T> implements ReplyParser<T> {
             } else if (b == '-') {
                 return errorParser
                         .parseReply(buffer, resultHandler, partialReplyHandler, failureHandler, charsetDecoder);
+            } else if (b == '_' && (marker == '$' || marker == '*')) {
+                // RESP3 null
+                return StringParser.INSTANCE.<T>map(s -> null)
+                        .parse(buffer, resultHandler, partialReplyHandler, charsetDecoder);
             } else {
                 throw new IllegalStateException("'" + marker + "' is expected but '" + (char) b + "' was found");
             }
@@ -0,0 +1,89 @@
+package xnioredis.decoder.parser;
+
+import xnioredis.decoder.BulkStringBuilderFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.util.function.Function;
+
+public class TransferReplyParser extends BulkStringReplyParser<Long> {
+    public TransferReplyParser(WritableByteChannel channel) {
+        super(new LenParser<>(len -> new BulkStringParser<>(len, transferTo(channel))));
+    }
+
+    @Override
+    public <U> U parseReply(ByteBuffer buffer, Function<? super Long, U> resultHandler,
+            PartialReplyHandler<? super Long, U> partialReplyHandler, FailureHandler<U> failureHandler,
+            CharsetDecoder charsetDecoder) {
+        try {
+            return super.parseReply(buffer, resultHandler,
+                    partial -> partialReplyHandler.partialReply(catching(partial)), failureHandler, charsetDecoder);
+        } catch (TransferFailedException e) {
+            return failureHandler.failure(e.getCause());
+        }
+    }
+
+    // A failed transfer is only reported by build(), after the whole payload has been consumed
+    private static ReplyParser<Long> catching(ReplyParser<? extends Long> parser) {
+        return new ReplyParser<Long>() {
+            @Override
+            public <U> U parseReply(ByteBuffer buffer, Function<? super Long, U> resultHandler,
+                    PartialReplyHandler<? super Long, U> partialReplyHandler, FailureHandler<U> failureHandler,
+                    CharsetDecoder charsetDecoder) {
+                try {
+                    return parser.parseReply(buffer, resultHandler,
+                            partial -> partialReplyHandler.partialReply(catching(partial)), failureHandler,
+                            charsetDecoder);
+                } catch (TransferFailedException e) {
+                    return failureHandler.failure(e.getCause());
+                }
+            }
+        };
+    }
+
+    private static BulkStringBuilderFactory<Long> transferTo(WritableByteChannel channel) {
+        return (length, charsetDecoder) -> new BulkStringBuilderFactory.Builder<Long>() {
+            private long transferred = 0;
+            private IOException failure;
+
+            @Override
+            public void append(ByteBuffer buffer) {
+                try {
+                    while (failure == null && buffer.hasRemaining()) {
+                        int written = channel.write(buffer);
+                        if (written == 0) {
+                            failure = new IOException(
+                                    "Channel did not accept any bytes, a blocking channel is required");
+                        }
+                        transferred += written;
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                // Keep consuming the payload after a failure so that the next reply is parsed from its start
+                buffer.position(buffer.limit());
+            }
+
+            @Override
+            public void appendLast(ByteBuffer buffer) {
+                append(buffer);
+            }
+
+            @Override
+            public Long build() {
+                if (failure != null) {
+                    throw new TransferFailedException(failure);
+                }
+                return transferred;
+            }
+        };
+    }
+
+    private static class TransferFailedException extends RuntimeException {
+        TransferFailedException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package xnioredis.decoder.parser;
+
+import xnioredis.decoder.RespValue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.function.Function;
+
+// Accepts a reply of any type; only a top level error fails it, errors nested in aggregates are values
+public class ValueReplyParser extends SuccessOrFailureParser<RespValue> {
+    private final ErrorParser<RespValue> errorParser = new ErrorParser<>();
+
+    public ValueReplyParser() {
+        super('\0', new RespValueParser((byte) '\0'), Shape.VALUE);
+    }
+
+    @Override
+    public <U> U parseReply(ByteBuffer buffer, Function<? super RespValue, U> resultHandler,
+            PartialReplyHandler<? super RespValue, U> partialReplyHandler, FailureHandler<U> failureHandler,
+            CharsetDecoder charsetDecoder) {
+        if (!buffer.hasRemaining()) {
+            return partialReplyHandler.partialReply(this);
+        }
+        byte b = buffer.get();
+        if (b == '-') {
+            return errorParser.parseReply(buffer, resultHandler, partialReplyHandler, failureHandler, charsetDecoder);
+        } else if (b == '!') {
+            return blobError(new RespValueParser(b), buffer, partialReplyHandler, failureHandler, charsetDecoder);
+        }
+        return new RespValueParser(b).parse(buffer, resultHandler, partialReplyHandler, charsetDecoder);
+    }
+
+    private static <U> U blobError(Parser<? extends RespValue> parser, ByteBuffer buffer,
+            PartialReplyHandler<? super RespValue, U> partialReplyHandler, FailureHandler<U> failureHandler,
+            CharsetDecoder charsetDecoder) {
+        return parser.parse(buffer, error -> failureHandler.failure(error.asString()),
+                partial -> partialReplyHandler.partialReply(new ReplyParser<RespValue>() {
+                    @Override
+                    public <U1> U1 parseReply(ByteBuffer buffer, Function<? super RespValue, U1> resultHandler,
+                            PartialReplyHandler<? super RespValue, U1> partialReplyHandler,
+                            FailureHandler<U1> failureHandler, CharsetDecoder charsetDecoder) {
+                        return blobError(partial, buffer, partialReplyHandler, failureHandler, charsetDecoder);
+                    }
+                }), charsetDecoder);
+    }
+}
@@ -1,8 +1,11 @@
 package xnioredis.encoder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class Encoders {
     public static Encoder<CharSequence> strArg() {
@@ -21,6 +24,35 @@ public class Encoders {
         return bytes -> sink -> sink.bulkString(bytes);
     }
 
+    // For buffers that are never changed, such as mapped files
+    public static Encoder<ByteBuffer> byteBufferArg() {
+        return byteBufferArg(buffer -> {
+        });
+    }
+
+    // The remaining bytes of the buffer, which is not copied when it is larger than a pooled buffer. It must not be
+    // changed until released is called with it, once: after the future of the request is done and no write of it is
+    // left. A request sent again after a redirect, a reload of its script or a reconnection reads it again
+    public static Encoder<ByteBuffer> byteBufferArg(Consumer<? super ByteBuffer> released) {
+        return buffer -> new RespArrayElementsWriter() {
+            // The request and each write whose bytes are not on the socket yet
+            private final AtomicInteger holders = new AtomicInteger(1);
+
+            @Override
+            public void writeTo(RespSink sink) throws IOException {
+                holders.incrementAndGet();
+                sink.bulkString(buffer, this::release);
+            }
+
+            @Override
+            public void release() {
+                if (holders.decrementAndGet() == 0) {
+                    released.accept(buffer);
+                }
+            }
+        };
+    }
+
     public static MultiEncoder<long[]> longArrayArg() {
         return es -> new RespArrayElementsWriter() {
             @Override
@@ -8,4 +8,8 @@ public interface RespArrayElementsWriter {
     }
 
     void writeTo(RespSink sink) throws IOException;
+
+    // Called once the request of the elements is done
+    default void release() {
+    }
 }
@@ -1,6 +1,7 @@
 package xnioredis.encoder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface RespSink {
     void array(int size) throws IOException;
@@ -11,6 +12,27 @@ public interface RespSink {
 
     void bulkString(byte[] src) throws IOException;
 
+    // The remaining bytes of src, copied before this returns and without moving its position
+    default void bulkString(ByteBuffer src) throws IOException {
+        if (src.hasArray()) {
+            bulkString(src.array(), src.arrayOffset() + src.position(), src.remaining());
+        } else {
+            byte[] bytes = new byte[src.remaining()];
+            src.duplicate().get(bytes);
+            bulkString(bytes);
+        }
+    }
+
+    // The remaining bytes of src, which may be written from where they are after this returns; release is called
+    // once they are no longer read
+    default void bulkString(ByteBuffer src, Runnable release) throws IOException {
+        try {
+            bulkString(src);
+        } finally {
+            release.run();
+        }
+    }
+
     void bulkString(int num) throws IOException;
 
     void bulkString(long num) throws IOException;
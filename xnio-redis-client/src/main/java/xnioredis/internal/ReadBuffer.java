@@ -0,0 +1,54 @@
+package xnioredis.internal;
+
+import org.xnio.Pooled;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Shared by the decoders and the connections of the client; not part of its API
+public final class ReadBuffer {
+    // The buffer being parsed by the current IO thread; builders that keep views of it retain it
+    private static final ThreadLocal<ReadBuffer> CURRENT = new ThreadLocal<>();
+    private final Pooled<ByteBuffer> pooledBuffer;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    public ReadBuffer(Pooled<ByteBuffer> pooledBuffer) {
+        this.pooledBuffer = pooledBuffer;
+    }
+
+    public static void setCurrent(ReadBuffer readBuffer) {
+        CURRENT.set(readBuffer);
+    }
+
+    public static ReadBuffer current() {
+        return CURRENT.get();
+    }
+
+    public ByteBuffer buffer() {
+        return pooledBuffer.getResource();
+    }
+
+    // Whether buffer is a view of this one rather than a copy, such as the wrapped bytes of a RESP3 scalar. Direct
+    // buffers have no public address to compare, and the decoders make only heap copies
+    public boolean backs(ByteBuffer buffer) {
+        ByteBuffer own = buffer();
+        if (own.isDirect()) {
+            return buffer.isDirect();
+        }
+        return buffer.hasArray() && buffer.array() == own.array();
+    }
+
+    public boolean isShared() {
+        return refCount.get() > 1;
+    }
+
+    public void retain() {
+        refCount.incrementAndGet();
+    }
+
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            pooledBuffer.free();
+        }
+    }
+}
@@ -0,0 +1,3 @@
+@ParametersAreNonnullByDefault package xnioredis.internal;
+
+import javax.annotation.ParametersAreNonnullByDefault;
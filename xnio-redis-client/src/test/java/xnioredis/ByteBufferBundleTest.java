@@ -15,6 +15,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import static java.lang.Integer.min;
@@ -61,6 +62,38 @@ public class ByteBufferBundleTest {
         assertThat(byteBufferBundle.getReadBuffers(), emptyArray());
     }
 
+    @Theory
+    public void writesLargeBuffersInPlace(@ForAll byte[] message, @TestedOn(ints = {7, 10}) int readChunk) {
+        Pool<ByteBuffer> byteBufferPool = new ByteBufferSlicePool(DIRECT_BYTE_BUFFER_ALLOCATOR, 10, 1000);
+        ByteBufferBundle byteBufferBundle = new ByteBufferBundle(byteBufferPool);
+        ByteBufferSink byteSink = new ByteBufferSink(byteBufferBundle);
+        AtomicInteger released = new AtomicInteger();
+        byteSink.write(new byte[]{'a', 'b', 'c'});
+        byteSink.write(ByteBuffer.wrap(message).asReadOnlyBuffer(), released::incrementAndGet);
+        byteSink.write(new byte[]{'\r', '\n'});
+        byte[] expected = Bytes.concat(new byte[]{'a', 'b', 'c'}, message, new byte[]{'\r', '\n'});
+        // Copied and released at once when smaller than a pooled buffer
+        assertThat(released.get(), equalTo(message.length < 10 ? 1 : 0));
+        assertThat(byteBufferBundle.allocSize(), equalTo(message.length < 10 ? (message.length + 14) / 10 : 3));
+
+        List<byte[]> receivedMessages = new ArrayList<>();
+        int received = 0;
+        while (received < expected.length) {
+            byteBufferBundle.startReading();
+            try {
+                int readLen = min(readChunk, expected.length - received);
+                read(byteBufferBundle.getReadBuffers(), receivedMessages::add, readLen);
+                received += readLen;
+            } finally {
+                byteBufferBundle.startWriting();
+            }
+            assertThat(released.get(), equalTo(received >= 3 + message.length ? 1 : message.length < 10 ? 1 : 0));
+        }
+        assertThat(Bytes.concat(receivedMessages.stream().toArray(byte[][]::new)), equalTo(expected));
+        byteBufferBundle.free();
+        assertThat(released.get(), equalTo(1));
+    }
+
     private int remaining(ByteBuffer[] readBuffers) {
         return Arrays.stream(readBuffers).mapToInt(Buffer::remaining).sum();
     }
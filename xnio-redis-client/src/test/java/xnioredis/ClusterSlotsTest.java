@@ -0,0 +1,100 @@
+package xnioredis;
+
+import com.pholser.junit.quickcheck.ForAll;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.contrib.theories.suppliers.TestedOn;
+import org.junit.runner.RunWith;
+import xnioredis.decoder.RespValue;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(Theories.class)
+public class ClusterSlotsTest {
+    @Theory
+    public void hashesKeysLikeRedis(@TestedOn(ints = {0, 1}) int bytes) {
+        ClusterSlots<String> slots = slots();
+        assertThat(slot(slots, "123456789", bytes), equalTo(0x31C3 % ClusterSlots.SLOTS));
+        assertThat(slot(slots, "foo", bytes), equalTo(12182));
+        assertThat(slot(slots, "{user1000}.following", bytes), equalTo(slot(slots, "{user1000}.followers", bytes)));
+        assertThat(slot(slots, "{user1000}.following", bytes), equalTo(slot(slots, "user1000", bytes)));
+        // An empty tag does not count
+        assertThat(slot(slots, "foo{}{bar}", bytes), equalTo(8363));
+        assertThat(slot(slots, "foo{{bar}}zap", bytes), equalTo(4015));
+    }
+
+    @Theory
+    public void hashesStringsAsTheirBytes(@ForAll String key) {
+        ClusterSlots<String> slots = slots();
+        assertThat(slots.slot(key), equalTo(slots.slot(key.getBytes(StandardCharsets.UTF_8))));
+        assertThat(slots.slot(new Key(key, StandardCharsets.UTF_8)), equalTo(slots.slot(key)));
+    }
+
+    @Theory
+    public void routesByTheLoadedTopology(@TestedOn(ints = {0, 5460, 5461, 16383}) int slot) {
+        ClusterSlots<String> slots = slots();
+        assertThat(slots.nodes(), contains("seed:7000"));
+        String reply = "*2\r\n" +
+                "*3\r\n:0\r\n:5460\r\n*3\r\n$0\r\n\r\n:7000\r\n$2\r\nid\r\n" +
+                "*4\r\n:5461\r\n:16383\r\n*2\r\n$5\r\nother\r\n:7001\r\n*2\r\n$7\r\nreplica\r\n:7002\r\n";
+        assertThat(slots.update(new RespValue(reply.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8),
+                "seed"), equalTo(Collections.emptySet()));
+        assertThat(slots.nodes(), containsInAnyOrder("seed:7000", "other:7001"));
+        assertThat(slots.host("other:7001"), equalTo("other"));
+        String node = slot <= 5460 ? "seed:7000" : "other:7001";
+        assertThat(slots.node(keyOf(slots, slot)), equalTo(node));
+        slots.moved(slot, slots.node("moved", 7003));
+        assertThat(slots.node(keyOf(slots, slot)), equalTo("moved:7003"));
+        assertThat(slots.update(new RespValue("*0\r\n".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8),
+                "seed"), containsInAnyOrder("other:7001", "moved:7003"));
+        assertThat(slots.nodes(), contains("seed:7000"));
+    }
+
+    @Theory
+    public void routesCommandsByTheirFirstArgument(@ForAll String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        assertThat(ClusterSlots.routingKey(key), equalTo(key));
+        assertThat(ClusterSlots.routingKey(bytes), equalTo(bytes));
+        assertThat(ClusterSlots.routingKey(new CharSequence[]{key, "other"}), equalTo(key));
+        assertThat(ClusterSlots.routingKey(new byte[][]{bytes}), equalTo(bytes));
+        assertThat(ClusterSlots.routingKey(new String[0]), nullValue());
+        assertThat(ClusterSlots.routingKey(42L), nullValue());
+        assertThat(ClusterSlots.routingKey(new long[]{1}), nullValue());
+        assertThat(ClusterSlots.routingKey(null), nullValue());
+    }
+
+    @Theory
+    public void parsesRedirects(@TestedOn(ints = {0, 1}) int ask) {
+        String type = ask == 1 ? "ASK" : "MOVED";
+        assertThat(ClusterSlots.redirect(type + " 3999 127.0.0.1:6381"),
+                equalTo(new String[]{type, "3999", "127.0.0.1", "6381"}));
+        assertThat(ClusterSlots.redirect(type + " 3999 ::1:6381"), equalTo(new String[]{type, "3999", "::1", "6381"}));
+        assertThat(ClusterSlots.redirect("ERR " + type + " 3999 127.0.0.1:6381"), nullValue());
+        assertThat(ClusterSlots.redirect(type + "ED"), nullValue());
+    }
+
+    private static ClusterSlots<String> slots() {
+        return new ClusterSlots<>(Collections.singletonList(InetSocketAddress.createUnresolved("seed", 7000)),
+                address -> address.getHostString() + ':' + address.getPort(), StandardCharsets.UTF_8);
+    }
+
+    private static int slot(ClusterSlots<String> slots, String key, int bytes) {
+        return bytes == 1 ? slots.slot(key.getBytes(StandardCharsets.UTF_8)) : slots.slot(key);
+    }
+
+    private static String keyOf(ClusterSlots<String> slots, int slot) {
+        for (int i = 0; ; i++) {
+            if (slots.slot("key" + i) == slot) {
+                return "key" + i;
+            }
+        }
+    }
+}
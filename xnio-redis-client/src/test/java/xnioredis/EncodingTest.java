@@ -19,14 +19,20 @@ import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_16BE;
 import static java.nio.charset.StandardCharsets.UTF_16LE;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assume.assumeTrue;
@@ -48,6 +54,22 @@ public class EncodingTest {
         assertThat(serialize(charset, bufferSize, writer), equalTo(respBulkString(val.getBytes(charset))));
     }
 
+    @Theory
+    public void testKeyArg(@ForAll String val, Charset charset) throws Exception {
+        assumeTrue(charset.newEncoder().canEncode(val));
+        byte[] expected = respBulkString(val.getBytes(charset));
+        assertThat(serialize(charset, 0x1000, Encoders.strArg().encode(new Key(val, charset))), equalTo(expected));
+        // A key of another charset is encoded again
+        Charset other = charset.equals(UTF_8) ? UTF_16BE : UTF_8;
+        assertThat(serialize(charset, 0x1000, Encoders.strArg().encode(new Key(val, other))), equalTo(expected));
+        KeyCache cache = new KeyCache(charset, 2);
+        assertThat(cache.key(val), sameInstance(cache.key(val)));
+        cache.key(val + "a");
+        cache.key(val + "b");
+        assertThat(cache.size(), lessThanOrEqualTo(2));
+        assertThat(cache.key(val).toString(), equalTo(val));
+    }
+
     @Theory
     public void testLongArg(@ForAll long val, Charset charset, @FromDataPoints("bufferSize") int bufferSize) throws
             Exception {
@@ -74,6 +96,23 @@ public class EncodingTest {
         assertThat(serialize(charset, bufferSize, writer), equalTo(respBulkString(val)));
     }
 
+    @Theory
+    public void testByteBufferArg(@ForAll byte[] val, Charset charset) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(val.length + 2);
+        buffer.put((byte) 1).put(val).put((byte) 2).flip();
+        buffer.position(1).limit(val.length + 1);
+        List<ByteBuffer> released = new ArrayList<>();
+        RespArrayElementsWriter writer = Encoders.byteBufferArg(released::add).encode(buffer);
+        assertEquals(writer.size(), 1);
+        assertThat(serialize(charset, 0x1000, writer), equalTo(respBulkString(val)));
+        // Written again, as after a redirect, and released once the request is done
+        assertThat(serialize(charset, 0x1000, writer), equalTo(respBulkString(val)));
+        assertThat(released, empty());
+        writer.release();
+        assertThat(released, contains(sameInstance(buffer)));
+        assertThat(buffer.position(), equalTo(1));
+    }
+
     @Theory
     public void testLongArrayArg(@ForAll long[] val, Charset charset, @FromDataPoints("bufferSize") int bufferSize)
             throws Exception {
@@ -137,6 +176,15 @@ public class EncodingTest {
             out.write(src, offset, length);
         }
 
+        @Override
+        public void write(ByteBuffer src, Runnable release) {
+            ByteBuffer bytes = src.duplicate();
+            while (bytes.hasRemaining()) {
+                out.write(bytes.get());
+            }
+            release.run();
+        }
+
         public byte[] geBytes() {
             return out.toByteArray();
         }
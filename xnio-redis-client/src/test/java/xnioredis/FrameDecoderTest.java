@@ -0,0 +1,460 @@
+package xnioredis;
+
+import com.pholser.junit.quickcheck.ForAll;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.runner.RunWith;
+import org.xnio.Pooled;
+import xnioredis.decoder.ArrayBuilders;
+import xnioredis.decoder.ByteView;
+import xnioredis.decoder.LongHashSet;
+import xnioredis.decoder.RespValue;
+import xnioredis.decoder.parser.FrameDecoder;
+import xnioredis.decoder.parser.ReplyParser;
+import xnioredis.decoder.parser.ReplySequence;
+import xnioredis.internal.ReadBuffer;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.MalformedInputException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static xnioredis.decoder.ArrayBuilders.collection;
+import static xnioredis.decoder.ArrayBuilders.longArray;
+import static xnioredis.decoder.ArrayBuilders.longSet;
+import static xnioredis.decoder.BulkStringBuilders._double;
+import static xnioredis.decoder.BulkStringBuilders._long;
+import static xnioredis.decoder.BulkStringBuilders.byteView;
+import static xnioredis.decoder.BulkStringBuilders.integer;
+import static xnioredis.decoder.BulkStringBuilders.string;
+import static xnioredis.decoder.MapBuilders.map;
+import static xnioredis.decoder.Replies.arrayReply;
+import static xnioredis.decoder.Replies.arrayValueReply;
+import static xnioredis.decoder.Replies.booleanReply;
+import static xnioredis.decoder.Replies.bulkStringReply;
+import static xnioredis.decoder.Replies.integerReply;
+import static xnioredis.decoder.Replies.longArrayReply;
+import static xnioredis.decoder.Replies.longReply;
+import static xnioredis.decoder.Replies.mapReply;
+import static xnioredis.decoder.Replies.simpleStringReply;
+import static xnioredis.decoder.Replies.valueReply;
+
+@RunWith(Theories.class)
+public class FrameDecoderTest {
+    @Theory
+    public void decodesIntegers(@ForAll long value) {
+        assertDecodedAtEverySplit(":" + value + "\r\n", longReply(), value);
+    }
+
+    @Theory
+    public void scansWholeLinesInEitherByteOrder(@ForAll long value) {
+        String line = "OK " + value + " " + Long.toHexString(value);
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            // Every alignment of the line to the words it is read in
+            for (int offset = 0; offset < 8; offset++) {
+                assertThat(parse(longReply(), whole(":" + value + "\r\n", offset, order)), equalTo(value));
+                assertThat(parse(simpleStringReply(), whole("+" + line + "\r\n", offset, order)), equalTo(line));
+                FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+                assertTrue(frameDecoder.decode(whole(":" + value + "\r\n", offset, order), longReply()));
+                assertThat(frameDecoder.value(), equalTo(value));
+                assertTrue(frameDecoder.decode(whole("+" + line + "\r\n", offset, order), simpleStringReply()));
+                assertThat(frameDecoder.value(), equalTo(line));
+            }
+        }
+        for (String malformed : new String[]{":1234567a9012\r\n", ":12345678-9\r\n", ":1\rx"}) {
+            try {
+                parse(longReply(), whole(malformed, 0, ByteOrder.BIG_ENDIAN));
+                fail(malformed);
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Theory
+    public void decodesIntegersAsInt(@ForAll int value) {
+        assertDecodedAtEverySplit(":" + value + "\r\n", integerReply(), value);
+    }
+
+    @Theory
+    public void decodesSimpleStrings(@ForAll int value) {
+        assertDecodedAtEverySplit("+OK " + value + "\r\n", simpleStringReply(), "OK " + value);
+    }
+
+    @Theory
+    public void decodesBulkStrings(@ForAll String value) {
+        String expected = new String(value.getBytes(UTF_8), UTF_8);
+        assertDecodedAtEverySplit(bulkString(value), bulkStringReply(string()), expected);
+    }
+
+    @Theory
+    public void decodesNumericBulkStringsFromTheirBytes(@ForAll long number) {
+        int integer = (int) number;
+        double value = Double.longBitsToDouble(number);
+        assertDecodedAtEverySplit(bulkString(Long.toString(number)), bulkStringReply(_long()), number);
+        assertDecodedAtEverySplit(bulkString(Integer.toString(integer)), bulkStringReply(integer()), integer);
+        assertDecodedAtEverySplit(bulkString(Double.toString(value)), bulkStringReply(_double()), value);
+        String decimal = BigDecimal.valueOf(number, Math.floorMod(integer, 23)).toPlainString();
+        assertDecodedAtEverySplit(bulkString(decimal), bulkStringReply(_double()), Double.parseDouble(decimal));
+        for (String malformed : new String[]{"", "-", "1-", "12a", "9223372036854775808", "-9223372036854775809"}) {
+            try {
+                _long().decode(ByteBuffer.wrap(malformed.getBytes(UTF_8)), UTF_8.newDecoder());
+                fail(malformed);
+            } catch (NumberFormatException e) {
+                // Expected
+            }
+        }
+        try {
+            integer().decode(ByteBuffer.wrap("2147483648".getBytes(UTF_8)), UTF_8.newDecoder());
+            fail();
+        } catch (NumberFormatException e) {
+            // Expected
+        }
+        assertThat(_long().decode(ByteBuffer.wrap("-9223372036854775808".getBytes(UTF_8)), UTF_8.newDecoder()),
+                equalTo(Long.MIN_VALUE));
+    }
+
+    @Theory
+    public void decodesStringsWithoutTheDecoder(@ForAll String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        String expected = new String(bytes, UTF_8);
+        assertDecodedAtEverySplit(bulkString(value), bulkStringReply(string()), expected);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        assertThat(string().decode(direct, UTF_8.newDecoder()), equalTo(expected));
+        assertFalse(direct.hasRemaining());
+        assertThat(string().decode(ByteBuffer.wrap(bytes), ISO_8859_1.newDecoder()),
+                equalTo(new String(bytes, ISO_8859_1)));
+        String supplementary = "a\u00e9\u20ac\ud83d\ude00" + value;
+        assertDecodedAtEverySplit(bulkString(supplementary), bulkStringReply(string()),
+                new String(supplementary.getBytes(UTF_8), UTF_8));
+        for (byte[] malformed : new byte[][]{{(byte) 0xc0, (byte) 0x80}, {(byte) 0x80}, {(byte) 0xe2, (byte) 0x82},
+                {(byte) 0xed, (byte) 0xa0, (byte) 0x80}, {(byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80}}) {
+            try {
+                string().decode(ByteBuffer.wrap(malformed), UTF_8.newDecoder());
+                fail(Arrays.toString(malformed));
+            } catch (RuntimeException e) {
+                assertThat(e.getCause(), instanceOf(MalformedInputException.class));
+            }
+        }
+        try {
+            string().decode(ByteBuffer.wrap("\u00e9".getBytes(UTF_8)), US_ASCII.newDecoder());
+            fail();
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), instanceOf(MalformedInputException.class));
+        }
+    }
+
+    @Theory
+    public void decodesArrays(@ForAll(sampleSize = 25) String[] values) {
+        StringBuilder resp = new StringBuilder("*").append(values.length).append("\r\n");
+        List<String> expected = new ArrayList<>();
+        for (String value : values) {
+            resp.append(bulkString(value));
+            expected.add(new String(value.getBytes(UTF_8), UTF_8));
+        }
+        assertDecodedAtEverySplit(resp.toString(), arrayReply(collection(ArrayList::new), string()), expected);
+    }
+
+    @Theory
+    public void resetReleasesTheViewsOfAnAbortedReply(@ForAll(sampleSize = 25) String[] values) {
+        StringBuilder resp = new StringBuilder("*").append(values.length + 1).append("\r\n");
+        for (String value : values) {
+            resp.append(bulkString(value));
+        }
+        byte[] bytes = resp.append(bulkString("last")).toString().getBytes(UTF_8);
+        FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+        for (int split = 0; split < bytes.length; split++) {
+            AtomicInteger freed = new AtomicInteger();
+            ReadBuffer readBuffer = new ReadBuffer(pooled(ByteBuffer.allocate(bytes.length), freed));
+            ReadBuffer.setCurrent(readBuffer);
+            try {
+                ByteBuffer buffer = readBuffer.buffer();
+                buffer.put(bytes, 0, split).flip();
+                assertFalse(frameDecoder.decode(buffer, arrayReply(collection(ArrayList::new), byteView())));
+                frameDecoder.reset();
+            } finally {
+                ReadBuffer.setCurrent(null);
+            }
+            readBuffer.release();
+            assertThat(freed.get(), equalTo(1));
+        }
+    }
+
+    @Theory
+    @SuppressWarnings("unchecked")
+    public void viewsOfScalarsDoNotHoldTheReadBuffer(@ForAll long number) {
+        byte[] bytes = ("*2\r\n(" + number + "\r\n$4\r\nbulk\r\n").getBytes(UTF_8);
+        AtomicInteger freed = new AtomicInteger();
+        ReadBuffer readBuffer = new ReadBuffer(pooled(ByteBuffer.allocate(bytes.length), freed));
+        ReadBuffer.setCurrent(readBuffer);
+        List<ByteView> views;
+        try {
+            ByteBuffer buffer = readBuffer.buffer();
+            buffer.put(bytes).flip();
+            FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+            assertTrue(frameDecoder.decode(buffer, arrayReply(collection(ArrayList::new), byteView())));
+            views = (List<ByteView>) frameDecoder.value();
+        } finally {
+            ReadBuffer.setCurrent(null);
+        }
+        readBuffer.release();
+        // Only the bulk string is a view of the read buffer
+        assertThat(freed.get(), equalTo(0));
+        views.get(1).release();
+        assertThat(freed.get(), equalTo(1));
+        assertThat(views.get(0).toString(UTF_8), equalTo(Long.toString(number)));
+        views.get(0).release();
+    }
+
+    @Theory
+    public void decodesIntegerArraysUnboxed(@ForAll(sampleSize = 25) long[] values) {
+        StringBuilder resp = new StringBuilder("*").append(values.length + 1).append("\r\n");
+        long[] expected = Arrays.copyOf(values, values.length + 1);
+        expected[values.length] = Long.MIN_VALUE;
+        for (long value : expected) {
+            resp.append(bulkString(Long.toString(value)));
+        }
+        assertDecodedAtEverySplit(resp.toString(), longArrayReply(longArray()), expected);
+        byte[] bytes = resp.toString().getBytes(UTF_8);
+        assertThat(parse(longArrayReply(longArray()), ByteBuffer.wrap(bytes)), equalTo(expected));
+
+        FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+        assertTrue(frameDecoder.decode(ByteBuffer.wrap(bytes), longArrayReply(longSet())));
+        LongHashSet set = (LongHashSet) frameDecoder.value();
+        for (long value : expected) {
+            assertTrue(set.contains(value));
+        }
+        assertThat(set.size(), equalTo((int) Arrays.stream(expected).distinct().count()));
+        long[] sorted = set.toArray();
+        Arrays.sort(sorted);
+        assertThat(sorted, equalTo(Arrays.stream(expected).distinct().sorted().toArray()));
+    }
+
+    @Theory
+    public void decodesMaps(@ForAll(sampleSize = 25) int[] keys) {
+        StringBuilder resp = new StringBuilder("*").append(keys.length * 2).append("\r\n");
+        Map<String, String> expected = new HashMap<>();
+        for (int key : keys) {
+            resp.append(bulkString("k" + key)).append("$-1\r\n");
+            expected.put("k" + key, null);
+        }
+        assertDecodedAtEverySplit(resp.toString(), mapReply(map(HashMap::new), string(), string()), expected);
+    }
+
+    @Theory
+    public void failedReplyOfSequenceIsReadToTheEnd(@ForAll long value) {
+        String sequenceResp = "-ERR first\r\n:" + value + "\r\n-ERR third\r\n";
+        byte[] bytes = (sequenceResp + ":1\r\n").getBytes(UTF_8);
+        for (int split = 0; split <= sequenceResp.length(); split++) {
+            FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+            ByteBuffer head = ByteBuffer.wrap(bytes, 0, split);
+            ByteBuffer tail = ByteBuffer.wrap(bytes, split, bytes.length - split);
+            ReplyParser<List<Long>> sequence = new ReplySequence<>(
+                    Arrays.asList(longReply(), longReply(), longReply()), collection(ArrayList::new));
+            boolean done = frameDecoder.decode(head, sequence) || frameDecoder.decode(tail, sequence);
+            assertTrue(done);
+            assertThat(frameDecoder.error(), equalTo("ERR first"));
+            assertTrue(frameDecoder.decode(tail, longReply()));
+            assertThat(frameDecoder.value(), equalTo(1L));
+        }
+    }
+
+    @Theory
+    public void throwingConsumerFailsTheReplyAfterReadingIt(@ForAll(sampleSize = 25) long[] values) {
+        StringBuilder resp = new StringBuilder("*").append(values.length + 1).append("\r\n");
+        for (long value : values) {
+            resp.append(bulkString(Long.toString(value)));
+        }
+        byte[] bytes = resp.append(":1\r\n").append(":2\r\n").toString().getBytes(UTF_8);
+        IllegalStateException thrown = new IllegalStateException();
+        ReplyParser<Integer> parser = arrayReply(ArrayBuilders.<Long>forEach(value -> {
+            throw thrown;
+        }), _long());
+        for (int split = 0; split < bytes.length - 4; split++) {
+            FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+            ByteBuffer head = ByteBuffer.wrap(bytes, 0, split);
+            ByteBuffer tail = ByteBuffer.wrap(bytes, split, bytes.length - split);
+            assertTrue(frameDecoder.decode(head, parser) || frameDecoder.decode(tail, parser));
+            assertThat(frameDecoder.thrown(), sameInstance(thrown));
+            assertThat(frameDecoder.value(), nullValue());
+            assertTrue(frameDecoder.decode(tail, longReply()));
+            assertThat(frameDecoder.thrown(), nullValue());
+            assertThat(frameDecoder.value(), equalTo(2L));
+        }
+    }
+
+    @Theory
+    public void decodesNestedValues(@ForAll(sampleSize = 25) long number, @ForAll String string) {
+        String resp = "*4\r\n:" + number + "\r\n" + bulkString(string) + "*2\r\n$-1\r\n-ERR nested\r\n*0\r\n";
+        String expected =
+                "[" + number + ", " + new String(string.getBytes(UTF_8), UTF_8) + ", [null, (error) ERR nested], []]";
+        byte[] bytes = resp.getBytes(UTF_8);
+        FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+        for (int split = 0; split <= bytes.length; split++) {
+            ByteBuffer head = ByteBuffer.wrap(bytes, 0, split);
+            ByteBuffer tail = ByteBuffer.wrap(bytes, split, bytes.length - split);
+            assertTrue(frameDecoder.decode(head, valueReply()) || frameDecoder.decode(tail, valueReply()));
+            RespValue value = (RespValue) frameDecoder.value();
+            assertThat(value.toString(), equalTo(expected));
+            assertThat(value.get(0).asLong(), equalTo(number));
+            assertThat(value.get(2).get(1).type(), equalTo(RespValue.Type.ERROR));
+
+            head.rewind();
+            tail = ByteBuffer.wrap(bytes, split, bytes.length - split);
+            Object partial = parse(arrayValueReply(), head);
+            Object parsed = partial instanceof ReplyParser ? parse((ReplyParser<?>) partial, tail) : partial;
+            assertThat(parsed.toString(), equalTo(expected));
+        }
+    }
+
+    @Theory
+    public void failedValueReplyIsAnError(@ForAll int value) {
+        byte[] bytes = ("-ERR " + value + "\r\n").getBytes(UTF_8);
+        FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+        assertTrue(frameDecoder.decode(ByteBuffer.wrap(bytes), valueReply()));
+        assertThat(frameDecoder.error(), equalTo("ERR " + value));
+        assertThat(parse(valueReply(), ByteBuffer.wrap(bytes)), equalTo("ERR " + value));
+    }
+
+    @Theory
+    public void decodesResp3Aggregates(@ForAll(sampleSize = 25) int[] keys) {
+        StringBuilder map = new StringBuilder("%").append(keys.length).append("\r\n");
+        StringBuilder set = new StringBuilder("~").append(keys.length).append("\r\n");
+        Map<String, String> expectedMap = new HashMap<>();
+        List<String> expectedList = new ArrayList<>();
+        for (int key : keys) {
+            map.append("+k").append(key).append("\r\n").append("_\r\n");
+            set.append(bulkString("k" + key));
+            expectedMap.put("k" + key, null);
+            expectedList.add("k" + key);
+        }
+        assertDecodedAtEverySplit(map.toString(), mapReply(map(HashMap::new), string(), string()), expectedMap);
+        assertDecodedAtEverySplit(set.toString(), arrayReply(collection(ArrayList::new), string()), expectedList);
+    }
+
+    @Theory
+    public void decodesResp3Scalars(@ForAll double value, @ForAll long number) {
+        assertDecodedAtEverySplit("," + value + "\r\n", bulkStringReply(_double()), value);
+        assertDecodedAtEverySplit("$" + Double.toString(value).length() + "\r\n" + value + "\r\n",
+                bulkStringReply(_double()), value);
+        assertDecodedAtEverySplit("(" + number + "\r\n", bulkStringReply(_long()), number);
+        assertDecodedAtEverySplit("=" + (4 + Long.toString(number).length()) + "\r\ntxt:" + number + "\r\n",
+                bulkStringReply(string()), Long.toString(number));
+        assertDecodedAtEverySplit("_\r\n", bulkStringReply(string()), null);
+        assertDecodedAtEverySplit("#" + (number < 0 ? 'f' : 't') + "\r\n", booleanReply(), number >= 0);
+        assertDecodedAtEverySplit(":" + number + "\r\n", booleanReply(), number != 0);
+        // An attribute describes the reply and is skipped
+        assertDecodedAtEverySplit("|1\r\n+ttl\r\n:3\r\n:" + number + "\r\n", longReply(), number);
+    }
+
+    @Theory
+    public void decodesResp3Values(@ForAll long number) {
+        String resp = "%2\r\n+a\r\n~2\r\n,1.5\r\n#t\r\n$1\r\nb\r\n|1\r\n+key\r\n+popularity\r\n(" + number +
+                "\r\n";
+        byte[] bytes = resp.getBytes(UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+            ByteBuffer head = ByteBuffer.wrap(bytes, 0, split);
+            ByteBuffer tail = ByteBuffer.wrap(bytes, split, bytes.length - split);
+            assertTrue(frameDecoder.decode(head, valueReply()) || frameDecoder.decode(tail, valueReply()));
+            RespValue value = (RespValue) frameDecoder.value();
+            assertThat(value.type(), equalTo(RespValue.Type.MAP));
+            assertThat(value.size(), equalTo(4));
+            assertThat(value.asMap().get("a").get(0).asDouble(), equalTo(1.5));
+            assertThat(value.asMap().get("a").get(1).asBoolean(), equalTo(true));
+            assertThat(value.asMap().get("b").asLong(), equalTo(number));
+            assertThat(value.toString(), equalTo("{a=[1.5, t], b=" + number + "}"));
+        }
+        byte[] error = "!9\r\nERR blob\n\r\n".getBytes(UTF_8);
+        FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+        assertTrue(frameDecoder.decode(ByteBuffer.wrap(error), valueReply()));
+        assertThat(frameDecoder.error(), equalTo("ERR blob\n"));
+        assertThat(parse(valueReply(), ByteBuffer.wrap(error)), equalTo("ERR blob\n"));
+    }
+
+    private static Pooled<ByteBuffer> pooled(ByteBuffer buffer, AtomicInteger freed) {
+        return new Pooled<ByteBuffer>() {
+            @Override
+            public void discard() {
+                free();
+            }
+
+            @Override
+            public void free() {
+                freed.incrementAndGet();
+            }
+
+            @Override
+            public ByteBuffer getResource() {
+                return buffer;
+            }
+
+            @Override
+            public void close() {
+                free();
+            }
+        };
+    }
+
+    // The result, the parser of the rest of the reply or the error message
+    private static Object parse(ReplyParser<?> parser, ByteBuffer buffer) {
+        return parser.<Object>parseReply(buffer, value -> value, partial -> partial, CharSequence::toString,
+                UTF_8.newDecoder());
+    }
+
+    private static String bulkString(String value) {
+        return "$" + value.getBytes(UTF_8).length + "\r\n" + value + "\r\n";
+    }
+
+    // The buffer has junk before the position and after the limit
+    private static ByteBuffer whole(String resp, int offset, ByteOrder order) {
+        byte[] bytes = resp.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(offset + bytes.length + 8).order(order);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) '\r');
+        }
+        buffer.position(offset);
+        buffer.put(bytes);
+        buffer.limit(buffer.position());
+        buffer.position(offset);
+        return buffer;
+    }
+
+    private static void assertDecodedAtEverySplit(String resp, ReplyParser<?> parser, Object expected) {
+        assertTrue(FrameDecoder.supports(parser));
+        byte[] bytes = resp.getBytes(UTF_8);
+        FrameDecoder frameDecoder = new FrameDecoder(UTF_8.newDecoder());
+        for (int split = 0; split <= bytes.length; split++) {
+            ByteBuffer head = ByteBuffer.wrap(bytes, 0, split);
+            ByteBuffer tail = ByteBuffer.wrap(bytes, split, bytes.length - split);
+            if (split < bytes.length) {
+                assertFalse(frameDecoder.decode(head, parser));
+                assertFalse(head.hasRemaining());
+            } else {
+                assertTrue(frameDecoder.decode(head, parser));
+            }
+            assertTrue(split == bytes.length || frameDecoder.decode(tail, parser));
+            assertFalse(tail.hasRemaining());
+            assertThat(frameDecoder.error(), nullValue());
+            assertThat(frameDecoder.value(), equalTo(expected));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package xnioredis;
+
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.contrib.theories.suppliers.TestedOn;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Theories.class)
+public class InFlightLimiterTest {
+    @Theory
+    public void rejectsBeyondLimit(@TestedOn(ints = {1, 5}) int maxInFlight) {
+        InFlightLimiter limiter = new InFlightLimiter(maxInFlight, false, OverflowPolicy.REJECT, 0);
+        for (int i = 0; i < maxInFlight; i++) {
+            assertTrue(limiter.acquire(Long.MAX_VALUE));
+        }
+        assertFalse(limiter.acquire(Long.MAX_VALUE));
+        limiter.release();
+        assertTrue(limiter.acquire(Long.MAX_VALUE));
+        assertThat(limiter.inFlight(), equalTo(maxInFlight));
+    }
+
+    @Theory
+    public void grantsPartOfBatch(@TestedOn(ints = {1, 5}) int maxInFlight) {
+        InFlightLimiter limiter = new InFlightLimiter(maxInFlight, false, OverflowPolicy.REJECT, 0);
+        assertTrue(limiter.acquire(Long.MAX_VALUE));
+        assertThat(limiter.acquire(10, Long.MAX_VALUE), equalTo(maxInFlight - 1));
+        assertThat(limiter.acquire(10, Long.MAX_VALUE), equalTo(0));
+        limiter.release();
+        assertThat(limiter.acquire(10, Long.MAX_VALUE), equalTo(1));
+        assertThat(limiter.inFlight(), equalTo(maxInFlight));
+    }
+
+    @Theory
+    public void blocksUntilReleased(@TestedOn(ints = {1, 3}) int maxInFlight) throws Exception {
+        InFlightLimiter limiter =
+                new InFlightLimiter(maxInFlight, false, OverflowPolicy.BLOCK, TimeUnit.SECONDS.toNanos(10));
+        for (int i = 0; i < maxInFlight; i++) {
+            assertTrue(limiter.acquire(Long.MAX_VALUE));
+        }
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> limiter.acquire(Long.MAX_VALUE));
+        Thread.sleep(50);
+        assertFalse(blocked.isDone());
+        limiter.release();
+        assertTrue(blocked.get(10, TimeUnit.SECONDS));
+        assertFalse(limiter.acquire(TimeUnit.MILLISECONDS.toNanos(20)));
+    }
+
+    @Theory
+    public void adaptsToLatency(@TestedOn(ints = {100, 1000}) int maxInFlight) {
+        InFlightLimiter limiter = new InFlightLimiter(maxInFlight, true, OverflowPolicy.REJECT, 0);
+        int initialLimit = limiter.limit();
+        replyAtFullWindow(limiter, 1000, TimeUnit.MICROSECONDS.toNanos(100));
+        int grownLimit = limiter.limit();
+        assertThat(grownLimit, greaterThan(initialLimit));
+        replyAtFullWindow(limiter, 100, TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(limiter.limit(), lessThan(grownLimit));
+    }
+
+    private static void replyAtFullWindow(InFlightLimiter limiter, int replies, long rttNanos) {
+        for (int i = 0; i < replies; i++) {
+            while (limiter.acquire(0)) {
+            }
+            limiter.replied(System.nanoTime() - rttNanos);
+            limiter.release();
+        }
+    }
+}
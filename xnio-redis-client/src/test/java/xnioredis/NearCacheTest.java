@@ -0,0 +1,61 @@
+package xnioredis;
+
+import com.pholser.junit.quickcheck.ForAll;
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.contrib.theories.suppliers.TestedOn;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(Theories.class)
+public class NearCacheTest {
+    @Theory
+    public void invalidationDropsEveryReadOfKey(@ForAll String value) {
+        NearCache cache = new NearCache(1 << 20);
+        cache.put("k", "GET", value);
+        cache.put("k", "STRLEN", value.length());
+        cache.put("other", "GET", null);
+        assertThat(cache.get("k", "GET").value, equalTo(value));
+        assertThat(cache.get("other", "GET"), notNullValue());
+        cache.invalidate("k");
+        assertThat(cache.get("k", "GET"), nullValue());
+        assertThat(cache.get("k", "STRLEN"), nullValue());
+        assertThat(cache.get("other", "GET").value, nullValue());
+        assertThat(cache.getHits(), equalTo(3L));
+        assertThat(cache.getMisses(), equalTo(2L));
+        assertThat(cache.getInvalidations(), equalTo(1L));
+        cache.clear();
+        assertThat(cache.getWeight(), equalTo(0L));
+    }
+
+    @Theory
+    public void evictsUnusedEntriesBeyondMaxBytes(@TestedOn(ints = {1000, 10000}) int maxBytes) {
+        NearCache cache = new NearCache(maxBytes);
+        cache.put("hot", "GET", new byte[100]);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(cache.get("hot", "GET"), notNullValue());
+            cache.put("cold" + i, "GET", new byte[100]);
+            assertThat(cache.getWeight(), lessThanOrEqualTo((long) maxBytes));
+        }
+        assertThat(cache.getEvictions(), greaterThan(0L));
+        assertThat(cache.get("hot", "GET"), notNullValue());
+        cache.put("huge", "GET", new byte[maxBytes]);
+        assertThat(cache.get("huge", "GET"), nullValue());
+    }
+
+    @Theory
+    public void disabledCacheStaysEmpty(@ForAll String value) {
+        NearCache cache = new NearCache(1 << 20);
+        cache.put("k", "GET", value);
+        cache.disable();
+        cache.put("k", "GET", value);
+        assertThat(cache.get("k", "GET"), nullValue());
+        assertThat(cache.getWeight(), equalTo(0L));
+    }
+}
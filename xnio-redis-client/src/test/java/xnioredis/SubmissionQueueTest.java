@@ -0,0 +1,141 @@
+package xnioredis;
+
+import org.junit.contrib.theories.Theories;
+import org.junit.contrib.theories.Theory;
+import org.junit.contrib.theories.suppliers.TestedOn;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Theories.class)
+public class SubmissionQueueTest {
+    @Theory
+    public void rejectsWhenFull(@TestedOn(ints = {1, 3, 4, 5}) int capacity) {
+        SubmissionQueue<Integer> queue = new SubmissionQueue<>(capacity);
+        int size = Integer.highestOneBit(capacity) < capacity ? Integer.highestOneBit(capacity) << 1 : capacity;
+        for (int i = 0; i < size; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(size));
+        assertThat(queue.size(), equalTo(size));
+        for (int i = 0; i < size; i++) {
+            assertThat(queue.poll(), equalTo(i));
+        }
+        assertThat(queue.poll(), nullValue());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Theory
+    public void visitsWithoutTaking(@TestedOn(ints = {0, 1, 3}) int polled) {
+        SubmissionQueue<Integer> queue = new SubmissionQueue<>(4);
+        for (int i = 0; i < 6; i++) {
+            if (i >= 4) {
+                queue.poll();
+            }
+            assertTrue(queue.offer(i));
+        }
+        for (int i = 0; i < polled; i++) {
+            queue.poll();
+        }
+        List<Integer> visited = new ArrayList<>();
+        queue.forEach(visited::add);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 2 + polled; i < 6; i++) {
+            expected.add(i);
+        }
+        assertThat(visited, equalTo(expected));
+        assertThat(queue.size(), equalTo(4 - polled));
+    }
+
+    @Theory
+    public void keepsPerProducerOrder(@TestedOn(ints = {1, 2, 8}) int producers,
+            @TestedOn(ints = {2, 64}) int capacity) throws Exception {
+        int perProducer = 10000;
+        SubmissionQueue<long[]> queue = new SubmissionQueue<>(capacity);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                for (long i = 0; i < perProducer; i++) {
+                    long[] element = {producer, i};
+                    while (!queue.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long[] expected = new long[producers];
+        for (int received = 0; received < producers * perProducer; ) {
+            long[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+            } else {
+                assertThat(element[1], equalTo(expected[(int) element[0]]++));
+                received++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Theory
+    public void keepsBatchesContiguous(@TestedOn(ints = {1, 4}) int producers, @TestedOn(ints = {1, 7}) int batchSize)
+            throws Exception {
+        int batches = 2000;
+        SubmissionQueue<long[]> queue = new SubmissionQueue<>(16);
+        assertFalse(queue.offerAll(Collections.nCopies(17, new long[0])));
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                for (long b = 0; b < batches; b++) {
+                    List<long[]> batch = new ArrayList<>();
+                    for (long i = 0; i < batchSize; i++) {
+                        batch.add(new long[]{producer, b, i});
+                    }
+                    while (!queue.offerAll(batch)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long[] expected = new long[producers];
+        for (int received = 0; received < producers * batches; received++) {
+            long[] first = poll(queue);
+            assertThat(first[1], equalTo(expected[(int) first[0]]++));
+            assertThat(first[2], equalTo(0L));
+            for (long i = 1; i < batchSize; i++) {
+                long[] element = poll(queue);
+                assertThat(element[0], equalTo(first[0]));
+                assertThat(element[1], equalTo(first[1]));
+                assertThat(element[2], equalTo(i));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    private static <E> E poll(SubmissionQueue<E> queue) {
+        E element;
+        while ((element = queue.poll()) == null) {
+            Thread.yield();
+        }
+        return element;
+    }
+}
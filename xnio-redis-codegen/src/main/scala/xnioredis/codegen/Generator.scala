@@ -19,7 +19,9 @@ import scala.collection.mutable
 import scala.io.Source
 
 class Generator(dir: Path) {
-  private val skippedGroups: Set[String] = Set("pubsub", "scripting", "transactions")
+  // Of pubsub only PUBLISH has a reply type; subscriptions go through a Subscriber connection. Lua scripts are called
+  // through Script and transactions through Transaction
+  private val skippedGroups: Set[String] = Set("scripting", "transactions")
   private val supportedArgAttrs: Set[String] = Set("name", "type", "multiple", "optional")
   private val classLoader = Generator.getClass.getClassLoader
 
@@ -3,7 +3,11 @@ package xnioredis;
 import xnioredis.commands.Command1;
 import xnioredis.commands.Command2;
 import xnioredis.commands.Command3;
+import xnioredis.decoder.ByteView;
+import xnioredis.decoder.LongHashSet;
+import xnioredis.decoder.RespValue;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -25,8 +29,12 @@ import static xnioredis.commands.Hash.hlen;
 import static xnioredis.commands.Hash.hmget;
 import static xnioredis.commands.Hash.hmset;
 import static xnioredis.commands.Hash.hset;
+import static xnioredis.commands.List.blpop;
+import static xnioredis.commands.Pubsub.publish;
+import static xnioredis.commands.Server.commandInfo;
 import static xnioredis.commands.Server.flushall;
 import static xnioredis.commands.Server.flushdb;
+import static xnioredis.commands.Server.time;
 import static xnioredis.commands.Set.sadd;
 import static xnioredis.commands.Set.smembers;
 import static xnioredis.commands.String.get;
@@ -34,19 +42,25 @@ import static xnioredis.commands.String.set;
 import static xnioredis.commands.String.setnx;
 import static xnioredis.decoder.ArrayBuilders.array;
 import static xnioredis.decoder.ArrayBuilders.collection;
+import static xnioredis.decoder.ArrayBuilders.longArray;
+import static xnioredis.decoder.ArrayBuilders.longSet;
 import static xnioredis.decoder.BulkStringBuilders._long;
 import static xnioredis.decoder.BulkStringBuilders.byteArray;
+import static xnioredis.decoder.BulkStringBuilders.byteView;
 import static xnioredis.decoder.BulkStringBuilders.charSequence;
 import static xnioredis.decoder.BulkStringBuilders.integer;
 import static xnioredis.decoder.BulkStringBuilders.string;
 import static xnioredis.decoder.MapBuilders.map;
 import static xnioredis.decoder.Replies.arrayReply;
+import static xnioredis.decoder.Replies.arrayValueReply;
 import static xnioredis.decoder.Replies.bulkStringReply;
 import static xnioredis.decoder.Replies.integerReply;
+import static xnioredis.decoder.Replies.longArrayReply;
 import static xnioredis.decoder.Replies.longReply;
 import static xnioredis.decoder.Replies.mapReply;
 import static xnioredis.decoder.Replies.simpleStringReply;
 import static xnioredis.encoder.Encoders.arrayArg;
+import static xnioredis.encoder.Encoders.byteBufferArg;
 import static xnioredis.encoder.Encoders.bytesArg;
 import static xnioredis.encoder.Encoders.collArg;
 import static xnioredis.encoder.Encoders.intArg;
@@ -57,11 +71,16 @@ import static xnioredis.encoder.Encoders.mapArg;
 import static xnioredis.encoder.Encoders.strArg;
 
 public class Commands {
+    public static final Command2<CharSequence[], Integer, List<CharSequence>> BLPOP =
+            blpop(arrayArg(strArg()), intArg(), arrayReply(collection(ArrayList::new), charSequence()));
+    public static final Command1<CharSequence[], RespValue> COMMAND_INFO =
+            commandInfo(arrayArg(strArg()), arrayValueReply());
     public static final Command1<CharSequence[], Integer> DEL = del(arrayArg(strArg()), integerReply());
     public static final Command1<CharSequence, CharSequence> ECHO = echo(strArg(), bulkStringReply(charSequence()));
     public static final Command<CharSequence> FLUSHALL = flushall(simpleStringReply());
     public static final Command<CharSequence> FLUSHDB = flushdb(simpleStringReply());
     public static final Command1<CharSequence, byte[]> GET = get(strArg(), bulkStringReply(byteArray()));
+    public static final Command1<CharSequence, ByteView> GET_VIEW = get(strArg(), bulkStringReply(byteView()));
     public static final Command2<CharSequence, CharSequence[], Integer> HDEL =
             hdel(strArg(), arrayArg(strArg()), integerReply());
     public static final Command2<CharSequence, CharSequence, CharSequence> HGET =
@@ -97,10 +116,16 @@ public class Commands {
             sadd(strArg(), longArrayArg(), integerReply());
     public static final Command2<CharSequence, int[], Integer> SADD_INT_ARR =
             sadd(strArg(), intArrayArg(), integerReply());
+    public static final Command2<CharSequence, CharSequence, Integer> PUBLISH =
+            publish(strArg(), strArg(), integerReply());
+    public static final Command2<CharSequence, byte[], Integer> PUBLISH_BYTES =
+            publish(strArg(), bytesArg(), integerReply());
     public static final Command2<CharSequence, CharSequence, CharSequence> SET =
             set(strArg(), strArg(), simpleStringReply());
     public static final Command2<CharSequence, byte[], CharSequence> SET_BYTES =
             set(strArg(), bytesArg(), simpleStringReply());
+    public static final Command2<CharSequence, ByteBuffer, CharSequence> SET_BUFFER =
+            set(strArg(), byteBufferArg(), simpleStringReply());
     public static final Command2<CharSequence, Long, CharSequence> SET_LONG =
             set(strArg(), longArg(), simpleStringReply());
     public static final Command2<CharSequence, byte[], Integer> SETNX = setnx(strArg(), bytesArg(), integerReply());
@@ -108,6 +133,11 @@ public class Commands {
             smembers(strArg(), arrayReply(collection(HashSet::new), _long()));
     public static final Command1<CharSequence, List<Integer>> SMEMBERS_INTEGER_LIST =
             smembers(strArg(), arrayReply(collection(ArrayList::new), integer()));
+    public static final Command1<CharSequence, long[]> SMEMBERS_LONG_ARR =
+            smembers(strArg(), longArrayReply(longArray()));
+    public static final Command1<CharSequence, LongHashSet> SMEMBERS_LONG_SET =
+            smembers(strArg(), longArrayReply(longSet()));
+    public static final Command<RespValue> TIME = time(arrayValueReply());
     public static final Command<CharSequence> PING = ping(simpleStringReply());
     public static final Command.OptionalValue<Integer> EX = ex(intArg());
 }